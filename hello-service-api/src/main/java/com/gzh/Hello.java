@@ -1,5 +1,6 @@
 package com.gzh;
 
+import com.gzh.annotation.RpcCodec;
 import lombok.*;
 
 
@@ -11,6 +12,7 @@ import java.io.Serializable;
 @Setter
 @Builder
 @ToString
+@RpcCodec
 public class Hello implements Serializable {
     private String message;
     private String description;
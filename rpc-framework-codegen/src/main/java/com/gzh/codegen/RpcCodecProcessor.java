@@ -0,0 +1,221 @@
+package com.gzh.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 为 com.gzh.annotation.RpcCodec 标记的类生成 {@code <类名>_RpcCodec}，实现 com.gzh.codec.GeneratedCodec。
+ * <p>
+ * 基本类型和 String 直接读写，其余字段交给 CodecWriter#writeObject 按运行时类型处理。
+ * 生成的代码只引用字段、getter/setter 的名字，lombok 生成的方法在之后的编译阶段才可见也没有关系。
+ */
+@SupportedAnnotationTypes(RpcCodecProcessor.ANNOTATION)
+public class RpcCodecProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "com.gzh.annotation.RpcCodec";
+    static final String SUFFIX = "_RpcCodec";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+                    error(element, "@RpcCodec can only be used on concrete classes");
+                    continue;
+                }
+                TypeElement type = (TypeElement) element;
+                if (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)) {
+                    error(element, "@RpcCodec can not be used on inner (non static) classes");
+                    continue;
+                }
+                try {
+                    generate(type);
+                } catch (IOException e) {
+                    error(element, "failed to generate codec: " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String qualifiedName = type.getQualifiedName().toString();
+        // 嵌套类 a.Outer.Inner 生成 a.Outer_Inner_RpcCodec
+        String simpleName = (packageName.isEmpty() ? qualifiedName : qualifiedName.substring(packageName.length() + 1))
+                .replace('.', '_') + SUFFIX;
+        String typeName = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+
+        StringBuilder write = new StringBuilder();
+        StringBuilder read = new StringBuilder();
+        for (VariableElement field : fields(type)) {
+            appendField(packageName, field, write, read);
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import com.gzh.codec.CodecReader;\n")
+                .append("import com.gzh.codec.CodecWriter;\n")
+                .append("import com.gzh.codec.GeneratedCodec;\n\n")
+                .append("/**\n * Generated by ").append(RpcCodecProcessor.class.getName())
+                .append(" for {@link ").append(qualifiedName).append("}, do not edit.\n */\n")
+                .append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+                .append("public final class ").append(simpleName)
+                .append(" implements GeneratedCodec<").append(typeName).append("> {\n\n")
+                .append("    @Override\n")
+                .append("    public void write(").append(typeName).append(" value, CodecWriter out) {\n")
+                .append(write)
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public ").append(typeName).append(" read(CodecReader in) {\n")
+                .append("        ").append(typeName).append(" value = new ").append(typeName).append("();\n")
+                .append(read)
+                .append("        return value;\n")
+                .append("    }\n")
+                .append("}\n");
+
+        String fileName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(fileName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(source.toString());
+        }
+    }
+
+    /**
+     * 父类字段在前，按声明顺序；跳过 static 和 transient 字段
+     */
+    private List<VariableElement> fields(TypeElement type) {
+        List<VariableElement> result = new ArrayList<>();
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED) {
+            TypeElement parent = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (!parent.getQualifiedName().contentEquals("java.lang.Object")) {
+                result.addAll(fields(parent));
+            }
+        }
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (!modifiers.contains(Modifier.STATIC) && !modifiers.contains(Modifier.TRANSIENT)) {
+                result.add(field);
+            }
+        }
+        return result;
+    }
+
+    private void appendField(String packageName, VariableElement field,
+                             StringBuilder write, StringBuilder read) {
+        TypeMirror fieldType = field.asType();
+        String method;
+        String cast = "";
+        switch (fieldType.getKind()) {
+            case BOOLEAN:
+                method = "Boolean";
+                break;
+            case BYTE:
+                method = "Byte";
+                break;
+            case SHORT:
+                method = "Short";
+                break;
+            case CHAR:
+                method = "Char";
+                break;
+            case INT:
+                method = "Int";
+                break;
+            case LONG:
+                method = "Long";
+                break;
+            case FLOAT:
+                method = "Float";
+                break;
+            case DOUBLE:
+                method = "Double";
+                break;
+            default:
+                String erasure = processingEnv.getTypeUtils().erasure(fieldType).toString();
+                if ("java.lang.String".equals(erasure)) {
+                    method = "String";
+                } else {
+                    method = "Object";
+                    if (!"java.lang.Object".equals(erasure)) {
+                        cast = "(" + erasure + ") ";
+                    }
+                }
+        }
+        String name = field.getSimpleName().toString();
+        if (directlyAccessible(packageName, field)) {
+            write.append("        out.write").append(method).append("(value.").append(name).append(");\n");
+            read.append("        value.").append(name).append(" = ").append(cast)
+                    .append("in.read").append(method).append("();\n");
+        } else {
+            write.append("        out.write").append(method).append("(value.").append(getter(field)).append("());\n");
+            read.append("        value.").append(setter(field)).append("(").append(cast)
+                    .append("in.read").append(method).append("());\n");
+        }
+    }
+
+    private boolean directlyAccessible(String packageName, VariableElement field) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.FINAL) || modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        // 父类中包可见、protected 的字段只有同包时才能访问
+        String fieldPackage = processingEnv.getElementUtils().getPackageOf(field).getQualifiedName().toString();
+        return fieldPackage.equals(packageName);
+    }
+
+    /**
+     * 与 lombok 的命名规则一致：boolean 字段 isX，字段本身以 is 开头时 getter 保持原名、setter 去掉 is
+     */
+    private static String getter(VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (field.asType().getKind() == TypeKind.BOOLEAN) {
+            return startsWithIs(name) ? name : "is" + capitalize(name);
+        }
+        return "get" + capitalize(name);
+    }
+
+    private static String setter(VariableElement field) {
+        String name = field.getSimpleName().toString();
+        if (field.asType().getKind() == TypeKind.BOOLEAN && startsWithIs(name)) {
+            return "set" + name.substring(2);
+        }
+        return "set" + capitalize(name);
+    }
+
+    private static boolean startsWithIs(String name) {
+        return name.length() > 2 && name.startsWith("is") && Character.isUpperCase(name.charAt(2));
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
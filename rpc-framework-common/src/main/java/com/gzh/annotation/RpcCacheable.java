@@ -0,0 +1,27 @@
+package com.gzh.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 在客户端缓存服务接口方法的返回值，只用于结果在一段时间内不变的只读方法。
+ * 缓存按服务（含 group、version）、方法和参数区分，参数应是不可变对象；返回的缓存对象被所有调用方共享，不要修改
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcCacheable {
+    /**
+     * 结果缓存的毫秒数
+     */
+    long ttl();
+
+    /**
+     * 最多缓存的参数组合数，超过后淘汰最久未使用的
+     */
+    int maxEntries() default 1024;
+
+    /**
+     * 距过期不足这么多毫秒时，命中的调用仍返回缓存值并在后台刷新；不大于 0 时不提前刷新
+     */
+    long refreshAhead() default 0;
+}
@@ -0,0 +1,16 @@
+package com.gzh.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 标记需要在编译期生成二进制编解码器的类，由 rpc-framework-codegen 中的注解处理器生成同包下的 {@code <类名>_RpcCodec}，
+ * 嵌套类的 '$' 换成 '_'。
+ * <p>
+ * 按字段声明顺序（父类字段在前）读写全部非 static、非 transient 字段，私有字段通过 getX/isX、setX 访问，
+ * 因此类需要无参构造器和对应的 getter/setter（lombok 生成的即可）。两端必须使用同一版本的类。
+ */
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.CLASS)
+public @interface RpcCodec {
+}
@@ -0,0 +1,31 @@
+package com.gzh.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 服务接口方法上的调用配置，客户端代理读取
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RpcMethod {
+    /**
+     * 调用超时时间（毫秒），不大于 0 时使用服务级或全局配置
+     */
+    long timeout() default 0;
+
+    /**
+     * 方法是否幂等；幂等方法在响应慢时可以向另一个服务端再发一次（对冲请求）
+     */
+    boolean idempotent() default false;
+
+    /**
+     * 对冲延迟（毫秒），第一个请求超过这么久未返回时发出对冲请求；不大于 0 时使用全局配置或该方法调用耗时的 p95
+     */
+    long hedgeDelay() default 0;
+
+    /**
+     * 是否合并参数相同的并发调用：前一个相同调用返回之前发起的调用不再发送请求，共用它的结果。只用于幂等方法
+     */
+    boolean coalesce() default false;
+}
@@ -0,0 +1,27 @@
+package com.gzh.codec;
+
+/**
+ * 与 {@link CodecWriter} 对应的输入，读取顺序必须和写入顺序一致
+ */
+public interface CodecReader {
+
+    boolean readBoolean();
+
+    byte readByte();
+
+    short readShort();
+
+    char readChar();
+
+    int readInt();
+
+    long readLong();
+
+    float readFloat();
+
+    double readDouble();
+
+    String readString();
+
+    Object readObject();
+}
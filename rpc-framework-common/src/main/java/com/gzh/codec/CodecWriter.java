@@ -0,0 +1,33 @@
+package com.gzh.codec;
+
+/**
+ * 生成的编解码器写字段时使用的输出，具体的二进制格式由序列化器实现
+ */
+public interface CodecWriter {
+
+    void writeBoolean(boolean value);
+
+    void writeByte(byte value);
+
+    void writeShort(short value);
+
+    void writeChar(char value);
+
+    void writeInt(int value);
+
+    void writeLong(long value);
+
+    void writeFloat(float value);
+
+    void writeDouble(double value);
+
+    /**
+     * @param value 可以为 null
+     */
+    void writeString(String value);
+
+    /**
+     * 写入任意对象（可以为 null），带类型信息，读取时用 {@link CodecReader#readObject()} 还原
+     */
+    void writeObject(Object value);
+}
@@ -0,0 +1,11 @@
+package com.gzh.codec;
+
+/**
+ * 编译期为 {@link com.gzh.annotation.RpcCodec} 标记的类生成的编解码器，不使用反射
+ */
+public interface GeneratedCodec<T> {
+
+    void write(T value, CodecWriter out);
+
+    T read(CodecReader in);
+}
@@ -7,7 +7,10 @@ import lombok.Getter;
 @AllArgsConstructor
 @Getter
 public enum CompressTypeEnum {
-    GZIP((byte) 0x01,"gzip");
+    NONE((byte) 0x00,"none"),
+    GZIP((byte) 0x01,"gzip"),
+    LZ4((byte) 0x02,"lz4"),
+    DICT((byte) 0x03,"dict");
 
     private final byte code;
     private final String name;
@@ -20,4 +23,13 @@ public enum CompressTypeEnum {
         }
         return null;
     }
+
+    public static Byte getCode (String name) {
+        for (CompressTypeEnum c:CompressTypeEnum.values()) {
+            if (c.getName().equalsIgnoreCase(name)) {
+                return c.code;
+            }
+        }
+        return null;
+    }
 }
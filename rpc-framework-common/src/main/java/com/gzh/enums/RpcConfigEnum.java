@@ -7,7 +7,103 @@ import lombok.Getter;
 @Getter
 public enum RpcConfigEnum {
     RPC_CONFIG_PATH("rpc.properties"),
-    ZK_ADDRESS("rpc.zookeeper.address");
+    ZK_ADDRESS("rpc.zookeeper.address"),
+    // 默认压缩方式，取值为 CompressTypeEnum 的 name（none、gzip、lz4）
+    COMPRESS("rpc.compress"),
+    // 消息体小于该字节数时不压缩
+    COMPRESS_MIN_SIZE("rpc.compress.min-size"),
+    // 压缩后/压缩前 大于该值时视为压缩效果差，跳过压缩
+    COMPRESS_MAX_RATIO("rpc.compress.max-ratio"),
+    // 按服务或方法覆盖压缩方式：rpc.compress.override.接口全名[.方法名]=gzip|lz4|none
+    COMPRESS_OVERRIDE_PREFIX("rpc.compress.override."),
+    // 单个消息体解压后允许的最大字节数，防止异常或恶意数据耗尽内存
+    COMPRESS_MAX_DECOMPRESSED_SIZE("rpc.compress.max-decompressed-size"),
+    // 小于 rpc.compress.min-size 的消息体使用的压缩方式，默认 none，可设为 dict 使用共享字典压缩
+    COMPRESS_SMALL("rpc.compress.small"),
+    // 共享字典文件列表，逗号分隔、由旧到新；全部加载用于解压，压缩时使用 rpc.compress.dict.active 指定的那个（默认最后一个）
+    COMPRESS_DICT_FILES("rpc.compress.dict.files"),
+    COMPRESS_DICT_ACTIVE("rpc.compress.dict.active"),
+    // 采集多少个消息体样本用于训练字典，0 表示不采集
+    COMPRESS_DICT_TRAIN_SAMPLES("rpc.compress.dict.train-samples"),
+    // 训练出的字典写入的文件
+    COMPRESS_DICT_TRAIN_OUTPUT("rpc.compress.dict.train-output"),
+    // 训练字典的目标大小（字节）
+    COMPRESS_DICT_SIZE("rpc.compress.dict.size"),
+    // 客户端使用的协议版本，默认 2；服务端尚未升级时设为 1
+    PROTOCOL_VERSION("rpc.protocol.version"),
+    // 客户端希望使用的序列化方式，默认 hessian2；握手时服务端不支持则按客户端列出的顺序退回其他序列化方式，最终退回 hessian
+    SERIALIZATION("rpc.serialization"),
+    // 客户端等待握手响应的毫秒数，超时后按未协商的默认方式通信
+    HANDSHAKE_TIMEOUT("rpc.handshake.timeout-ms"),
+    // 客户端是否把短时间内发往同一连接的请求合并成一帧，需要服务端支持
+    BATCH_ENABLED("rpc.batch.enabled"),
+    // 合并窗口（微秒），第一个请求最多等待这么久
+    BATCH_WINDOW_MICROS("rpc.batch.window-us"),
+    // 一帧最多合并的请求数，达到后立即发送
+    BATCH_MAX_SIZE("rpc.batch.max-size"),
+    // 合并 flush：最多连续这么多次 flush 才真正写一次 socket，读完成或 EventLoop 本轮结束时也会写出；0 表示关闭
+    FLUSH_CONSOLIDATION("rpc.transport.flush-consolidation"),
+    // Kryo 额外注册的业务类全名，逗号分隔；顺序决定注册 id，客户端和服务端必须一致
+    KRYO_CLASSES("rpc.serialization.kryo.classes"),
+    // Kryo 是否只允许序列化已注册的类
+    KRYO_REGISTRATION_REQUIRED("rpc.serialization.kryo.registration-required"),
+    // 是否按方法根据观测到的序列化耗时和大小，在双方都支持的序列化方式中自动选择
+    SERIALIZATION_ADAPTIVE("rpc.serialization.adaptive"),
+    // 自动选择时参与比较的序列化方式，逗号分隔，默认 hessian2,kyro,protostuff（Kryo 的扩展名是 kyro）
+    SERIALIZATION_ADAPTIVE_CANDIDATES("rpc.serialization.adaptive.candidates"),
+    // 自动选择时每字节消息体折算的纳秒数，用于权衡序列化耗时和传输、对端解码的开销
+    SERIALIZATION_ADAPTIVE_BYTE_COST("rpc.serialization.adaptive.byte-cost-ns"),
+    // 客户端到每个服务端地址至少保持的连接数
+    CLIENT_POOL_MIN("rpc.client.pool.min"),
+    // 客户端到每个服务端地址最多建立的连接数
+    CLIENT_POOL_MAX("rpc.client.pool.max"),
+    // 选中的连接上未完成的请求数达到该值时新建连接（不超过 max）
+    CLIENT_POOL_GROW_PENDING("rpc.client.pool.grow-pending"),
+    // 连接选择方式：least-pending（默认，未完成请求最少的连接）或 round-robin
+    CLIENT_POOL_SELECT("rpc.client.pool.select"),
+    // 客户端建立 TCP 连接的超时时间（毫秒）
+    CLIENT_CONNECT_TIMEOUT("rpc.client.connect-timeout-ms"),
+    // 连接失败后第一次重试前的等待时间（毫秒），之后每次失败翻倍
+    CLIENT_RECONNECT_BASE("rpc.client.reconnect.base-ms"),
+    // 连接失败后重试等待时间的上限（毫秒）
+    CLIENT_RECONNECT_MAX("rpc.client.reconnect.max-ms"),
+    // 客户端调用的默认超时时间（毫秒），默认 5000，不大于 0 表示不限时
+    CLIENT_TIMEOUT("rpc.client.timeout-ms"),
+    // 按服务或方法覆盖超时时间：rpc.client.timeout.接口全名[.方法名]=毫秒，优先于注解
+    CLIENT_TIMEOUT_PREFIX("rpc.client.timeout."),
+    // 客户端全局未完成调用数上限，默认 10000，不大于 0 表示不限制
+    CLIENT_MAX_INFLIGHT("rpc.client.max-inflight"),
+    // 每个连接上已发出未响应的调用数上限，默认 1000，超过后在该连接上排队；不大于 0 表示不限制
+    CLIENT_MAX_INFLIGHT_PER_CONNECTION("rpc.client.max-inflight-per-connection"),
+    // 所有连接尚未写入 socket 的字节数合计上限，默认 64MB，不大于 0 表示不限制
+    CLIENT_MAX_PENDING_BYTES("rpc.client.max-pending-bytes"),
+    // 每个连接出站缓冲区的高低水位（字节），超过高水位后连接不可写，低于低水位后恢复，默认 64KB / 32KB
+    CLIENT_WRITE_BUFFER_HIGH("rpc.client.write-buffer.high"),
+    CLIENT_WRITE_BUFFER_LOW("rpc.client.write-buffer.low"),
+    // 达到全局上限时的处理方式：fail-fast、wait（默认，阻塞调用线程）或 queue（不阻塞，排队）
+    CLIENT_OVERLOAD_POLICY("rpc.client.overload-policy"),
+    // wait 和 queue 最多等待的毫秒数，默认 1000
+    CLIENT_OVERLOAD_WAIT("rpc.client.overload.wait-ms"),
+    // queue 的队列长度，默认 1024
+    CLIENT_OVERLOAD_QUEUE_SIZE("rpc.client.overload.queue-size"),
+    // 是否按服务端地址根据 RTT 自适应调整并发上限
+    CLIENT_ADAPTIVE_LIMIT("rpc.client.adaptive-limit"),
+    // 自适应并发上限的初始值、下限和上限，默认 20 / 2 / 1000
+    CLIENT_ADAPTIVE_LIMIT_INITIAL("rpc.client.adaptive-limit.initial"),
+    CLIENT_ADAPTIVE_LIMIT_MIN("rpc.client.adaptive-limit.min"),
+    CLIENT_ADAPTIVE_LIMIT_MAX("rpc.client.adaptive-limit.max"),
+    // 平滑 RTT 不超过最小 RTT 的这么多倍时不收缩上限，默认 1.5
+    CLIENT_ADAPTIVE_LIMIT_RTT_TOLERANCE("rpc.client.adaptive-limit.rtt-tolerance"),
+    // 超出上限的调用：shed（默认，立即失败）或 queue（排队）
+    CLIENT_ADAPTIVE_LIMIT_POLICY("rpc.client.adaptive-limit.policy"),
+    // 是否对 @RpcMethod(idempotent = true) 的方法发送对冲请求，默认 true
+    CLIENT_HEDGE_ENABLED("rpc.client.hedge.enabled"),
+    // 对冲延迟（毫秒），默认 0 表示使用各方法调用耗时的 p95
+    CLIENT_HEDGE_DELAY("rpc.client.hedge.delay-ms"),
+    // 对冲请求最多占调用量的百分比，默认 5
+    CLIENT_HEDGE_BUDGET_PERCENT("rpc.client.hedge.budget-percent"),
+    // 是否启用 @RpcCacheable 结果缓存，默认 true
+    CLIENT_CACHE_ENABLED("rpc.client.cache.enabled");
 
     private final String propertyValue;
 }
@@ -14,7 +14,9 @@ public enum SerializationTypeEnum {
 
     KYRO((byte) 0x01, "kyro"),
     PROTOSTUFF((byte) 0x02, "protostuff"),
-    HESSIAN((byte) 0X03, "hessian");
+    HESSIAN((byte) 0X03, "hessian"),
+    HESSIAN2((byte) 0x04, "hessian2"),
+    GENERATED((byte) 0x05, "generated");
 
     private final byte code;
     private final String name;
@@ -28,4 +30,13 @@ public enum SerializationTypeEnum {
         return null;
     }
 
+    public static Byte getCode(String name) {
+        for (SerializationTypeEnum c : SerializationTypeEnum.values()) {
+            if (c.getName().equalsIgnoreCase(name)) {
+                return c.code;
+            }
+        }
+        return null;
+    }
+
 }
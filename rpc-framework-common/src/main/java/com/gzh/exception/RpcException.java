@@ -3,16 +3,25 @@ package com.gzh.exception;
 import com.gzh.enums.RpcErrorMessageEnum;
 
 public class RpcException extends RuntimeException{
+    // 没有对应的错误类型时为 null
+    private final RpcErrorMessageEnum messageEnum;
 
     public RpcException(RpcErrorMessageEnum messageEnum,String message) {
         super(messageEnum+":"+message);
+        this.messageEnum = messageEnum;
     }
 
     public RpcException(RpcErrorMessageEnum messageEnum) {
         super(messageEnum.getMessage());
+        this.messageEnum = messageEnum;
     }
 
     public RpcException(String message,Throwable cause) {
         super(message,cause);
+        this.messageEnum = null;
+    }
+
+    public RpcErrorMessageEnum getMessageEnum() {
+        return messageEnum;
     }
 }
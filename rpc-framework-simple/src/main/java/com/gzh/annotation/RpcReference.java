@@ -9,4 +9,9 @@ import java.lang.annotation.*;
 public @interface RpcReference {
     String version() default "";
     String group() default "";
+
+    /**
+     * 该服务所有方法的调用超时时间（毫秒），不大于 0 时使用 rpc.client.timeout-ms
+     */
+    long timeout() default 0;
 }
@@ -1,6 +1,7 @@
 package com.gzh.compress;
 
 import com.gzh.extension.SPI;
+import io.netty.buffer.ByteBuf;
 
 @SPI
 public interface Compress {
@@ -8,4 +9,23 @@ public interface Compress {
     byte[] compress(byte[] bytes);
 
     byte[] decompress(byte[] bytes);
+
+    /**
+     * Compress all readable bytes of {@code in} and append the result to {@code out}.
+     * The default goes through the byte[] methods; codecs that can stream should override it.
+     */
+    default void compress(ByteBuf in, ByteBuf out) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        out.writeBytes(compress(bytes));
+    }
+
+    /**
+     * Decompress all readable bytes of {@code in} and append the result to {@code out}.
+     */
+    default void decompress(ByteBuf in, ByteBuf out) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        out.writeBytes(decompress(bytes));
+    }
 }
@@ -0,0 +1,137 @@
+package com.gzh.compress;
+
+import com.gzh.compress.dict.DictionaryRegistry;
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.CompressTypeEnum;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.factory.SingletonFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 决定每条消息实际使用的压缩方式：
+ * <ul>
+ *     <li>默认压缩方式由 rpc.compress 指定，可按服务或方法覆盖（rpc.compress.override.接口全名[.方法名]）</li>
+ *     <li>消息体小于 rpc.compress.min-size 时使用 rpc.compress.small 指定的方式（默认不压缩，可设为 dict 使用共享字典）</li>
+ *     <li>某个方法观测到的压缩率太差（压缩后/压缩前 大于 rpc.compress.max-ratio）时跳过压缩，并定期重新探测</li>
+ * </ul>
+ */
+@Slf4j
+public class CompressPolicy {
+    private static final int DEFAULT_MIN_SIZE = 1024;
+    private static final double DEFAULT_MAX_RATIO = 0.9;
+    // 至少统计这么多次后才根据压缩率做判断
+    private static final int MIN_RATIO_SAMPLES = 8;
+    // 跳过压缩期间，每隔这么多次仍压缩一次，以便负载变化后能恢复压缩
+    private static final int PROBE_INTERVAL = 64;
+    private static final byte NONE = CompressTypeEnum.NONE.getCode();
+    private static final byte DICT = CompressTypeEnum.DICT.getCode();
+
+    private final DictionaryRegistry dictionaryRegistry = SingletonFactory.getInstance(DictionaryRegistry.class);
+    private final byte defaultCompress;
+    private final byte smallCompress;
+    private final int minSize;
+    private final double maxRatio;
+    private final Map<String, Byte> overrides;
+    private final Map<String, Byte> selected = new ConcurrentHashMap<>();
+    private final Map<String, CompressRatio> ratios = new ConcurrentHashMap<>();
+
+    public CompressPolicy() {
+        this.defaultCompress = toCode(RpcConfig.getString(RpcConfigEnum.COMPRESS, CompressTypeEnum.GZIP.getName()),
+                CompressTypeEnum.GZIP.getCode());
+        this.smallCompress = toCode(RpcConfig.getString(RpcConfigEnum.COMPRESS_SMALL, CompressTypeEnum.NONE.getName()), NONE);
+        this.minSize = RpcConfig.getInt(RpcConfigEnum.COMPRESS_MIN_SIZE, DEFAULT_MIN_SIZE);
+        this.maxRatio = RpcConfig.getDouble(RpcConfigEnum.COMPRESS_MAX_RATIO, DEFAULT_MAX_RATIO);
+        this.overrides = new HashMap<>();
+        RpcConfig.getByPrefix(RpcConfigEnum.COMPRESS_OVERRIDE_PREFIX)
+                .forEach((key, value) -> overrides.put(key, toCode(value, defaultCompress)));
+    }
+
+    /**
+     * 选择某个方法希望使用的压缩方式，方法级覆盖优先于服务级覆盖
+     *
+     * @param interfaceName 接口全名
+     * @param methodKey     接口全名.方法名
+     */
+    public byte select(String interfaceName, String methodKey) {
+        return selected.computeIfAbsent(methodKey, k -> {
+            Byte code = overrides.get(k);
+            if (code == null) {
+                code = overrides.get(interfaceName);
+            }
+            return code != null ? code : defaultCompress;
+        });
+    }
+
+    /**
+     * 序列化完成、已知消息体大小后，决定是否真的按 preferred 压缩
+     *
+     * @return 实际要使用的压缩方式
+     */
+    public byte apply(byte preferred, String methodKey, int rawLength) {
+        if (preferred == NONE) {
+            return NONE;
+        }
+        if (rawLength < minSize) {
+            // 字典压缩需要已加载字典
+            if (smallCompress == DICT && dictionaryRegistry.getActiveId() == null) {
+                return NONE;
+            }
+            return smallCompress;
+        }
+        if (methodKey != null) {
+            CompressRatio ratio = ratios.get(methodKey);
+            if (ratio != null && ratio.isPoor() && !ratio.shouldProbe()) {
+                return NONE;
+            }
+        }
+        return preferred;
+    }
+
+    /**
+     * 记录一次压缩的效果
+     */
+    public void record(String methodKey, int rawLength, int compressedLength) {
+        // 小消息体走的是 rpc.compress.small，不计入该方法的压缩率统计
+        if (methodKey == null || rawLength < minSize || rawLength <= 0) {
+            return;
+        }
+        ratios.computeIfAbsent(methodKey, k -> new CompressRatio())
+                .update((double) compressedLength / rawLength);
+    }
+
+    private static byte toCode(String name, byte defaultCode) {
+        Byte code = CompressTypeEnum.getCode(name);
+        if (code == null) {
+            log.warn("unknown compress type [{}], use [{}]", name, CompressTypeEnum.getName(defaultCode));
+            return defaultCode;
+        }
+        return code;
+    }
+
+    private final class CompressRatio {
+        private final AtomicInteger skipped = new AtomicInteger();
+        private volatile double ratio;
+        private volatile int samples;
+
+        // 指数加权平均，新样本权重 1/4
+        synchronized void update(double sample) {
+            ratio = samples == 0 ? sample : ratio + (sample - ratio) / 4;
+            if (samples < MIN_RATIO_SAMPLES) {
+                samples++;
+            }
+        }
+
+        boolean isPoor() {
+            return samples >= MIN_RATIO_SAMPLES && ratio > maxRatio;
+        }
+
+        boolean shouldProbe() {
+            return skipped.incrementAndGet() % PROBE_INTERVAL == 0;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.gzh.compress;
+
+import com.gzh.utils.RuntimeUtil;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 复用 {@link Deflater}/{@link Inflater} 的有界池。
+ * <p>
+ * 每个 Deflater/Inflater 背后都持有 zlib 的本地内存，不复用的话每次调用都会新建，
+ * 并且要等 finalizer/cleaner 线程才会释放，高并发下表现为本地内存上涨和 GC 停顿。
+ * 归还时 reset 后放回池中；池满时立即 end() 释放本地内存。
+ */
+public final class ZipStatePool<T> {
+    private final BlockingQueue<T> pool;
+    private final Supplier<T> factory;
+    private final Consumer<T> reset;
+    private final Consumer<T> destroy;
+
+    private ZipStatePool(int capacity, Supplier<T> factory, Consumer<T> reset, Consumer<T> destroy) {
+        this.pool = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+        this.reset = reset;
+        this.destroy = destroy;
+    }
+
+    public static ZipStatePool<Deflater> deflaters(int level, boolean nowrap) {
+        return new ZipStatePool<>(defaultCapacity(), () -> new Deflater(level, nowrap), Deflater::reset, Deflater::end);
+    }
+
+    public static ZipStatePool<Inflater> inflaters(boolean nowrap) {
+        return new ZipStatePool<>(defaultCapacity(), () -> new Inflater(nowrap), Inflater::reset, Inflater::end);
+    }
+
+    public T borrow() {
+        T state = pool.poll();
+        return state != null ? state : factory.get();
+    }
+
+    public void release(T state) {
+        reset.accept(state);
+        if (!pool.offer(state)) {
+            destroy.accept(state);
+        }
+    }
+
+    // 编解码运行在 EventLoop 和业务线程上，按 CPU 数的两倍保留即可
+    private static int defaultCapacity() {
+        return RuntimeUtil.cpus() * 2;
+    }
+}
@@ -0,0 +1,135 @@
+package com.gzh.compress.dict;
+
+import com.gzh.compress.Compress;
+import com.gzh.compress.ZipStatePool;
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.factory.SingletonFactory;
+import com.gzh.remoting.constants.RpcConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 基于共享字典的 deflate 压缩，面向几百字节、反复出现相同接口名/类名/字段名的小消息体。
+ * <p>
+ * 输出格式：4B 字典 id（大端）+ 使用该字典的 raw deflate 数据。
+ * 解压时按 id 查找字典，所以对端升级字典期间旧字典压缩的数据仍然可以解开。
+ */
+public class DictionaryCompress implements Compress {
+    private static final int BUFFER_SIZE = 1024;
+    private static final int DICTIONARY_ID_LENGTH = 4;
+    private static final int DEFAULT_MAX_DECOMPRESSED_SIZE = 4 * RpcConstants.MAX_FRAME_LENGTH;
+
+    private static final ZipStatePool<Deflater> DEFLATERS = ZipStatePool.deflaters(Deflater.DEFAULT_COMPRESSION, true);
+    private static final ZipStatePool<Inflater> INFLATERS = ZipStatePool.inflaters(true);
+
+    private final DictionaryRegistry dictionaryRegistry = SingletonFactory.getInstance(DictionaryRegistry.class);
+    private final int maxDecompressedSize =
+            RpcConfig.getInt(RpcConfigEnum.COMPRESS_MAX_DECOMPRESSED_SIZE, DEFAULT_MAX_DECOMPRESSED_SIZE);
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        ByteBuf out = Unpooled.buffer(bytes.length + DICTIONARY_ID_LENGTH);
+        compress(Unpooled.wrappedBuffer(bytes), out);
+        return ByteBufUtil.getBytes(out);
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        ByteBuf out = Unpooled.buffer(bytes.length * 4);
+        decompress(Unpooled.wrappedBuffer(bytes), out);
+        return ByteBufUtil.getBytes(out);
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        if (in == null) {
+            throw new NullPointerException("in is null");
+        }
+        Integer id = dictionaryRegistry.getActiveId();
+        if (id == null) {
+            throw new IllegalStateException("no compress dictionary configured, see rpc.compress.dict.files");
+        }
+        byte[] dictionary = dictionaryRegistry.get(id);
+        int length = in.readableBytes();
+        ByteBuf src = heapView(in, length);
+        Deflater deflater = DEFLATERS.borrow();
+        byte[] chunk = new byte[BUFFER_SIZE];
+        try {
+            out.writeInt(id);
+            // raw deflate 可以在开始压缩前随时设置字典，归还时的 reset() 会清掉它
+            deflater.setDictionary(dictionary);
+            deflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                out.writeBytes(chunk, 0, n);
+            }
+            in.skipBytes(length);
+        } finally {
+            DEFLATERS.release(deflater);
+            src.release();
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        if (in == null) {
+            throw new NullPointerException("in is null");
+        }
+        if (in.readableBytes() < DICTIONARY_ID_LENGTH) {
+            throw new IllegalArgumentException("dictionary compressed data is truncated");
+        }
+        int id = in.getInt(in.readerIndex());
+        byte[] dictionary = dictionaryRegistry.get(id);
+        if (dictionary == null) {
+            throw new IllegalArgumentException("unknown compress dictionary id " + Integer.toHexString(id));
+        }
+        int dataLength = in.readableBytes() - DICTIONARY_ID_LENGTH;
+        ByteBuf src = heapView(in.slice(in.readerIndex() + DICTIONARY_ID_LENGTH, dataLength), dataLength);
+        Inflater inflater = INFLATERS.borrow();
+        byte[] chunk = new byte[BUFFER_SIZE];
+        try {
+            inflater.setDictionary(dictionary);
+            inflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), dataLength);
+            long produced = 0;
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalArgumentException("dictionary compressed data is truncated");
+                }
+                produced += n;
+                if (produced > maxDecompressedSize) {
+                    throw new IllegalArgumentException("decompressed size exceeds limit " + maxDecompressedSize);
+                }
+                out.writeBytes(chunk, 0, n);
+            }
+            in.skipBytes(in.readableBytes());
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupt dictionary compressed data", e);
+        } finally {
+            INFLATERS.release(inflater);
+            src.release();
+        }
+    }
+
+    private static ByteBuf heapView(ByteBuf in, int length) {
+        if (in.hasArray()) {
+            return in.retainedSlice(in.readerIndex(), length);
+        }
+        ByteBuf heap = in.alloc().heapBuffer(length);
+        heap.writeBytes(in, in.readerIndex(), length);
+        return heap;
+    }
+}
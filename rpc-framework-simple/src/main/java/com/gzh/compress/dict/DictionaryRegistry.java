@@ -0,0 +1,135 @@
+package com.gzh.compress.dict;
+
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.utils.StringUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+
+/**
+ * 共享压缩字典的注册表。
+ * <p>
+ * 字典 id 取字典内容的 Adler-32（与 zlib 的 FDICT 字段相同），两端只要加载了同样的字典文件就会得到同样的 id，
+ * 不需要另外约定版本号。所有加载过的字典都会保留用于解压，压缩只使用当前激活的那一个，
+ * 因此更换字典时可以先把新字典文件下发到所有节点，再切换 rpc.compress.dict.active。
+ */
+@Slf4j
+public class DictionaryRegistry {
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private volatile Integer activeId;
+
+    public DictionaryRegistry() {
+        String files = RpcConfig.getString(RpcConfigEnum.COMPRESS_DICT_FILES, null);
+        if (files == null) {
+            return;
+        }
+        String active = RpcConfig.getString(RpcConfigEnum.COMPRESS_DICT_ACTIVE, null);
+        Integer lastId = null;
+        for (String file : files.split(",")) {
+            file = file.trim();
+            if (StringUtil.isBlank(file)) {
+                continue;
+            }
+            byte[] dictionary = read(file);
+            if (dictionary == null) {
+                continue;
+            }
+            if (dictionary.length == 0 || dictionary.length > MAX_DICTIONARY_SIZE) {
+                log.warn("compress dictionary [{}] size [{}] is out of range, ignored", file, dictionary.length);
+                continue;
+            }
+            int id = register(dictionary);
+            log.info("load compress dictionary [{}] id [{}] size [{}]", file, Integer.toHexString(id), dictionary.length);
+            if (file.equals(active)) {
+                activeId = id;
+            }
+            lastId = id;
+        }
+        if (activeId == null) {
+            activeId = lastId;
+        }
+    }
+
+    /**
+     * 注册字典，不改变当前激活的字典
+     *
+     * @return 字典 id
+     */
+    public int register(byte[] dictionary) {
+        if (dictionary == null || dictionary.length == 0 || dictionary.length > MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("dictionary size must be in (0, " + MAX_DICTIONARY_SIZE + "]");
+        }
+        int id = idOf(dictionary);
+        dictionaries.putIfAbsent(id, dictionary.clone());
+        return id;
+    }
+
+    public void activate(int id) {
+        if (!dictionaries.containsKey(id)) {
+            throw new IllegalArgumentException("unknown dictionary id " + Integer.toHexString(id));
+        }
+        activeId = id;
+    }
+
+    /**
+     * @return 当前用于压缩的字典 id，没有字典时返回 null
+     */
+    public Integer getActiveId() {
+        return activeId;
+    }
+
+    public byte[] get(int id) {
+        return dictionaries.get(id);
+    }
+
+    public Set<Integer> getIds() {
+        return Collections.unmodifiableSet(dictionaries.keySet());
+    }
+
+    public static int idOf(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        return (int) adler32.getValue();
+    }
+
+    /**
+     * 先按文件路径读取，不存在时再从 classpath 读取
+     */
+    private static byte[] read(String file) {
+        try {
+            Path path = Paths.get(file);
+            if (Files.isRegularFile(path)) {
+                return Files.readAllBytes(path);
+            }
+            try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(file)) {
+                if (in == null) {
+                    log.warn("compress dictionary [{}] not found", file);
+                    return null;
+                }
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    bos.write(buffer, 0, n);
+                }
+                return bos.toByteArray();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("can not read compress dictionary [{}]", file, e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.gzh.compress.dict;
+
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.utils.concurrent.threadpool.ThreadPoolFactoryUtil;
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 从实际流量中采样消息体并训练共享字典。
+ * <p>
+ * 配置 rpc.compress.dict.train-samples 后，编码器会把序列化后的消息体交给 {@link #offer(ByteBuf, int, int)}，
+ * 样本数量够了就在后台线程训练字典并写入 rpc.compress.dict.train-output。
+ * 训练出的字典不会自动启用：字典需要两端一致，由运维下发到所有节点后再通过 rpc.compress.dict.files 加载。
+ * <p>
+ * 训练方法：统计 8 字节片段在多少个样本中出现过，
+ * 每轮在一组样本里挑出包含高频片段最多的 32 字节区间加入字典，并清零已选片段的计数，直到字典填满。
+ * 越有价值的区间放在字典越靠后的位置，deflate 引用时距离更短。
+ */
+@Slf4j
+public class DictionaryTrainer {
+    private static final int NGRAM_LENGTH = 8;
+    private static final int SEGMENT_LENGTH = 32;
+    private static final int HASH_LOG = 20;
+    // 只采样小消息体，大消息体用普通压缩即可
+    private static final int MAX_SAMPLE_SIZE = 4 * 1024;
+    private static final int DEFAULT_DICTIONARY_SIZE = 4 * 1024;
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    private final int targetSamples;
+    private final String output;
+    private final int dictionarySize;
+    private final List<byte[]> samples;
+    private final AtomicBoolean trained = new AtomicBoolean();
+
+    public DictionaryTrainer() {
+        this.targetSamples = Math.max(0, RpcConfig.getInt(RpcConfigEnum.COMPRESS_DICT_TRAIN_SAMPLES, 0));
+        this.output = RpcConfig.getString(RpcConfigEnum.COMPRESS_DICT_TRAIN_OUTPUT, "rpc-compress.dict");
+        this.dictionarySize = Math.min(MAX_DICTIONARY_SIZE,
+                RpcConfig.getInt(RpcConfigEnum.COMPRESS_DICT_SIZE, DEFAULT_DICTIONARY_SIZE));
+        this.samples = new ArrayList<>(targetSamples);
+    }
+
+    public boolean isSampling() {
+        return targetSamples > 0 && !trained.get();
+    }
+
+    /**
+     * 采集一个样本，样本够了之后在后台训练并写出字典
+     */
+    public void offer(ByteBuf body, int index, int length) {
+        if (!isSampling() || length < NGRAM_LENGTH || length > MAX_SAMPLE_SIZE) {
+            return;
+        }
+        byte[] sample = new byte[length];
+        body.getBytes(index, sample);
+        List<byte[]> collected;
+        synchronized (samples) {
+            if (samples.size() >= targetSamples) {
+                return;
+            }
+            samples.add(sample);
+            if (samples.size() < targetSamples || !trained.compareAndSet(false, true)) {
+                return;
+            }
+            collected = new ArrayList<>(samples);
+            samples.clear();
+        }
+        ThreadPoolFactoryUtil.createThreadFactory("rpc-dict-trainer", true).newThread(() -> {
+            byte[] dictionary = train(collected, dictionarySize);
+            if (dictionary.length == 0) {
+                log.warn("no repeated content found in [{}] samples, compress dictionary not written", collected.size());
+                return;
+            }
+            try {
+                Files.write(Paths.get(output), dictionary);
+                log.info("compress dictionary trained from [{}] samples, id [{}] size [{}], written to [{}]",
+                        collected.size(), Integer.toHexString(DictionaryRegistry.idOf(dictionary)), dictionary.length, output);
+            } catch (IOException e) {
+                log.error("write compress dictionary to [{}] failed", output, e);
+            }
+        }).start();
+    }
+
+    /**
+     * 根据样本训练字典
+     *
+     * @param samples        消息体样本
+     * @param dictionarySize 字典最大字节数
+     */
+    public static byte[] train(List<byte[]> samples, int dictionarySize) {
+        int[] counts = new int[1 << HASH_LOG];
+        int[] lastSeen = new int[1 << HASH_LOG];
+        // 统计每个片段出现在多少个样本中，同一样本内重复出现只算一次
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            for (int i = 0; i + NGRAM_LENGTH <= sample.length; i++) {
+                int h = hash(sample, i);
+                if (lastSeen[h] != s + 1) {
+                    lastSeen[h] = s + 1;
+                    counts[h]++;
+                }
+            }
+        }
+
+        List<byte[]> segments = new ArrayList<>();
+        int size = 0;
+        int epochs = Math.max(1, Math.min(samples.size(), dictionarySize / SEGMENT_LENGTH));
+        boolean progress = true;
+        while (size < dictionarySize && progress) {
+            progress = false;
+            for (int epoch = 0; epoch < epochs && size < dictionarySize; epoch++) {
+                byte[] best = null;
+                int bestOffset = 0;
+                long bestScore = 0;
+                for (int s = epoch; s < samples.size(); s += epochs) {
+                    byte[] sample = samples.get(s);
+                    int segmentLength = Math.min(SEGMENT_LENGTH, sample.length);
+                    // 滑动窗口：窗口内各片段（至少出现在两个样本中）的计数之和
+                    long score = 0;
+                    int windowNgrams = segmentLength - NGRAM_LENGTH + 1;
+                    for (int i = 0; i < windowNgrams; i++) {
+                        score += weight(counts, sample, i);
+                    }
+                    for (int start = 0; ; start++) {
+                        if (score > bestScore) {
+                            bestScore = score;
+                            best = sample;
+                            bestOffset = start;
+                        }
+                        int next = start + windowNgrams;
+                        if (next + NGRAM_LENGTH > sample.length) {
+                            break;
+                        }
+                        score += weight(counts, sample, next) - weight(counts, sample, start);
+                    }
+                }
+                if (best == null) {
+                    continue;
+                }
+                int length = Math.min(Math.min(SEGMENT_LENGTH, best.length - bestOffset), dictionarySize - size);
+                byte[] segment = new byte[length];
+                System.arraycopy(best, bestOffset, segment, 0, length);
+                for (int i = 0; i + NGRAM_LENGTH <= length; i++) {
+                    counts[hash(segment, i)] = 0;
+                }
+                segments.add(segment);
+                size += length;
+                progress = true;
+            }
+        }
+
+        // 先选中的区间价值更高，放到字典末尾
+        Collections.reverse(segments);
+        byte[] dictionary = new byte[size];
+        int p = 0;
+        for (byte[] segment : segments) {
+            System.arraycopy(segment, 0, dictionary, p, segment.length);
+            p += segment.length;
+        }
+        return dictionary;
+    }
+
+    private static int weight(int[] counts, byte[] sample, int i) {
+        int count = counts[hash(sample, i)];
+        return count > 1 ? count : 0;
+    }
+
+    private static int hash(byte[] b, int i) {
+        long v = (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16 | (b[i + 3] & 0xFFL) << 24
+                | (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40 | (b[i + 6] & 0xFFL) << 48 | (b[i + 7] & 0xFFL) << 56;
+        return (int) ((v * 0x9E3779B97F4A7C15L) >>> (64 - HASH_LOG));
+    }
+}
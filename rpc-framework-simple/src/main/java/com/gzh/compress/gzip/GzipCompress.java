@@ -1,29 +1,57 @@
 package com.gzh.compress.gzip;
 
 import com.gzh.compress.Compress;
+import com.gzh.compress.ZipStatePool;
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.remoting.constants.RpcConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+/**
+ * GZIP（RFC 1952）压缩，输出格式与 {@link java.util.zip.GZIPOutputStream} 一致，可与旧版本互通。
+ * <p>
+ * 直接使用池化的 {@link Deflater}/{@link Inflater} 处理 deflate 数据并自行读写 GZIP 头尾，
+ * 解压时参考尾部记录的原始长度预留输出空间，但这个长度来自对端、不可信，预留量同时受压缩数据长度
+ * 和 MAX_PRESIZE 限制，不够时再逐步扩容；实际解压出的字节数受 rpc.compress.max-decompressed-size 限制，
+ * 防止异常数据把堆撑爆。
+ */
 public class GzipCompress implements Compress {
     private static final int BUFFER_SIZE = 1024 * 4;
+    // deflate 的压缩比理论上不超过约 1032:1
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    // 按尾部长度预留输出空间的上限，更大的消息体在解压过程中扩容
+    private static final int MAX_PRESIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_DECOMPRESSED_SIZE = 4 * RpcConstants.MAX_FRAME_LENGTH;
+    private static final int GZIP_MAGIC = 0x8b1f;
+    // magic, CM=deflate, FLG=0, MTIME=0, XFL=0, OS=0，与 GZIPOutputStream 写出的头相同
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int TRAILER_LENGTH = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final ZipStatePool<Deflater> DEFLATERS = ZipStatePool.deflaters(Deflater.DEFAULT_COMPRESSION, true);
+    private static final ZipStatePool<Inflater> INFLATERS = ZipStatePool.inflaters(true);
+
+    private final int maxDecompressedSize =
+            RpcConfig.getInt(RpcConfigEnum.COMPRESS_MAX_DECOMPRESSED_SIZE, DEFAULT_MAX_DECOMPRESSED_SIZE);
+
     @Override
     public byte[] compress(byte[] bytes) {
         if (bytes == null) {
             throw new NullPointerException("bytes is null");
         }
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-             GZIPOutputStream gzip = new GZIPOutputStream(out)){
-                gzip.write(bytes);
-                gzip.flush();
-                gzip.finish();
-                return out.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        ByteBuf out = Unpooled.buffer(bytes.length / 2 + HEADER.length + TRAILER_LENGTH);
+        compress(Unpooled.wrappedBuffer(bytes), out);
+        return ByteBufUtil.getBytes(out);
     }
 
     @Override
@@ -31,17 +59,174 @@ public class GzipCompress implements Compress {
         if (bytes == null) {
             throw new NullPointerException("bytes is null");
         }
+        ByteBuf out = Unpooled.buffer(0);
+        decompress(Unpooled.wrappedBuffer(bytes), out);
+        return ByteBufUtil.getBytes(out);
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        if (in == null) {
+            throw new NullPointerException("in is null");
+        }
+        int length = in.readableBytes();
+        ByteBuf src = heapView(in, length);
+        Deflater deflater = DEFLATERS.borrow();
+        ByteBuf chunk = null;
+        try {
+            byte[] input = src.array();
+            int inputOffset = src.arrayOffset() + src.readerIndex();
+            CRC32 crc = new CRC32();
+            crc.update(input, inputOffset, length);
+
+            out.writeBytes(HEADER);
+            deflater.setInput(input, inputOffset, length);
+            deflater.finish();
+            if (!out.hasArray()) {
+                chunk = out.alloc().heapBuffer(BUFFER_SIZE);
+            }
+            while (!deflater.finished()) {
+                if (chunk == null) {
+                    // 直接压缩进 out 的底层数组
+                    out.ensureWritable(BUFFER_SIZE);
+                    int n = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+                    out.writerIndex(out.writerIndex() + n);
+                } else {
+                    int n = deflater.deflate(chunk.array(), chunk.arrayOffset(), chunk.capacity());
+                    out.writeBytes(chunk.array(), chunk.arrayOffset(), n);
+                }
+            }
+            out.writeIntLE((int) crc.getValue());
+            out.writeIntLE(length);
+            in.skipBytes(length);
+        } finally {
+            DEFLATERS.release(deflater);
+            src.release();
+            if (chunk != null) {
+                chunk.release();
+            }
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        if (in == null) {
+            throw new NullPointerException("in is null");
+        }
+        int start = in.readerIndex();
+        int end = in.writerIndex();
+        int headerLength = headerLength(in, start, end);
+        int dataLength = end - start - headerLength - TRAILER_LENGTH;
+        if (dataLength < 0) {
+            throw new IllegalArgumentException("gzip data is truncated");
+        }
+        long expectedCrc = in.getUnsignedIntLE(end - TRAILER_LENGTH);
+        long expectedSize = in.getUnsignedIntLE(end - 4);
+        if (expectedSize > maxDecompressedSize) {
+            throw new IllegalArgumentException("decompressed size " + expectedSize
+                    + " exceeds limit " + maxDecompressedSize);
+        }
+        // 尾部的原始长度可能是伪造的：几十字节的数据声称解压后有几十 MB，不能据此直接分配
+        out.ensureWritable((int) Math.min(expectedSize, Math.min((long) dataLength * MAX_DEFLATE_RATIO, MAX_PRESIZE)));
 
-        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-             GZIPInputStream gzio = new GZIPInputStream(new ByteArrayInputStream(bytes))){
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int n;
-            while ((n = gzio.read(buffer)) > -1) {
-                out.write(buffer,0,n);
+        ByteBuf src = heapView(in.slice(start + headerLength, dataLength), dataLength);
+        Inflater inflater = INFLATERS.borrow();
+        ByteBuf chunk = null;
+        try {
+            inflater.setInput(src.array(), src.arrayOffset() + src.readerIndex(), dataLength);
+            CRC32 crc = new CRC32();
+            long produced = 0;
+            if (!out.hasArray()) {
+                chunk = out.alloc().heapBuffer(BUFFER_SIZE);
             }
-            return out.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            while (!inflater.finished()) {
+                int n;
+                if (chunk == null) {
+                    if (!out.isWritable()) {
+                        out.ensureWritable(BUFFER_SIZE);
+                    }
+                    int offset = out.arrayOffset() + out.writerIndex();
+                    n = inflater.inflate(out.array(), offset, out.writableBytes());
+                    crc.update(out.array(), offset, n);
+                    out.writerIndex(out.writerIndex() + n);
+                } else {
+                    n = inflater.inflate(chunk.array(), chunk.arrayOffset(), chunk.capacity());
+                    crc.update(chunk.array(), chunk.arrayOffset(), n);
+                    out.writeBytes(chunk.array(), chunk.arrayOffset(), n);
+                }
+                produced += n;
+                if (produced > maxDecompressedSize) {
+                    throw new IllegalArgumentException("decompressed size exceeds limit " + maxDecompressedSize);
+                }
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("gzip data is truncated");
+                }
+            }
+            if (crc.getValue() != expectedCrc || produced != expectedSize) {
+                throw new IllegalArgumentException("gzip trailer mismatch");
+            }
+            in.readerIndex(end);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupt gzip data", e);
+        } finally {
+            INFLATERS.release(inflater);
+            src.release();
+            if (chunk != null) {
+                chunk.release();
+            }
+        }
+    }
+
+    /**
+     * 解析 GZIP 头，返回头部长度
+     */
+    private static int headerLength(ByteBuf in, int start, int end) {
+        if (end - start < HEADER.length + TRAILER_LENGTH) {
+            throw new IllegalArgumentException("gzip data is truncated");
+        }
+        if (in.getUnsignedShortLE(start) != GZIP_MAGIC) {
+            throw new IllegalArgumentException("not in gzip format");
+        }
+        if (in.getByte(start + 2) != Deflater.DEFLATED) {
+            throw new IllegalArgumentException("unsupported gzip compression method");
+        }
+        int flags = in.getUnsignedByte(start + 3);
+        int p = start + HEADER.length;
+        if ((flags & FEXTRA) != 0) {
+            p += 2 + in.getUnsignedShortLE(p);
+        }
+        if ((flags & FNAME) != 0) {
+            p = skipZeroTerminated(in, p, end);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            p = skipZeroTerminated(in, p, end);
+        }
+        if ((flags & FHCRC) != 0) {
+            p += 2;
+        }
+        if (p > end - TRAILER_LENGTH) {
+            throw new IllegalArgumentException("gzip data is truncated");
+        }
+        return p - start;
+    }
+
+    private static int skipZeroTerminated(ByteBuf in, int p, int end) {
+        int zero = in.indexOf(p, end, (byte) 0);
+        if (zero < 0) {
+            throw new IllegalArgumentException("gzip data is truncated");
+        }
+        return zero + 1;
+    }
+
+    /**
+     * Deflater/Inflater 只接受 byte[]，返回 in 中接下来 length 个字节的堆内视图（需要 release）
+     */
+    private static ByteBuf heapView(ByteBuf in, int length) {
+        if (in.hasArray()) {
+            return in.retainedSlice(in.readerIndex(), length);
         }
+        ByteBuf heap = in.alloc().heapBuffer(length);
+        heap.writeBytes(in, in.readerIndex(), length);
+        return heap;
     }
 }
@@ -0,0 +1,327 @@
+package com.gzh.compress.lz4;
+
+import com.gzh.compress.Compress;
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.remoting.constants.RpcConstants;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+/**
+ * LZ4 block format compressor implemented in plain Java, trading ratio for speed.
+ * <p>
+ * Output layout: 4B uncompressed length (big-endian) followed by one LZ4 block.
+ * The match-finder hash table is kept per thread and is never cleared: every candidate
+ * is verified against the input, so stale entries from previous calls are harmless.
+ * Direct buffers are staged through pooled heap buffers from the same allocator.
+ *
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 Block Format</a>
+ */
+public class Lz4Compress implements Compress {
+    private static final int MIN_MATCH = 4;
+    // the last 5 bytes are always literals
+    private static final int LAST_LITERALS = 5;
+    // the last match must start at least 12 bytes before the end of the block
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    // skip faster over data that does not compress, same heuristic as the reference implementation
+    private static final int SKIP_TRIGGER = 6;
+    private static final int RUN_MASK = 0x0F;
+    private static final int HEADER_LENGTH = 4;
+    private static final int DEFAULT_MAX_DECOMPRESSED_SIZE = 4 * RpcConstants.MAX_FRAME_LENGTH;
+
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    private final int maxDecompressedSize =
+            RpcConfig.getInt(RpcConfigEnum.COMPRESS_MAX_DECOMPRESSED_SIZE, DEFAULT_MAX_DECOMPRESSED_SIZE);
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        byte[] dst = new byte[HEADER_LENGTH + maxCompressedLength(bytes.length)];
+        writeIntBE(dst, 0, bytes.length);
+        int n = compressBlock(bytes, 0, bytes.length, dst, HEADER_LENGTH, HASH_TABLE.get());
+        return Arrays.copyOf(dst, HEADER_LENGTH + n);
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        if (bytes.length < HEADER_LENGTH) {
+            throw new IllegalArgumentException("lz4 block is truncated");
+        }
+        int length = readLength(bytes, 0, bytes.length - HEADER_LENGTH);
+        byte[] dst = new byte[length];
+        decompressBlock(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, dst, 0, length);
+        return dst;
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        int srcLength = in.readableBytes();
+        ByteBuf src = toHeap(in, srcLength);
+        try {
+            int maxLength = maxCompressedLength(srcLength);
+            out.ensureWritable(HEADER_LENGTH + maxLength);
+            out.writeInt(srcLength);
+            byte[] srcArray = src.array();
+            int srcOffset = src.arrayOffset() + src.readerIndex();
+            if (out.hasArray()) {
+                int n = compressBlock(srcArray, srcOffset, srcLength,
+                        out.array(), out.arrayOffset() + out.writerIndex(), HASH_TABLE.get());
+                out.writerIndex(out.writerIndex() + n);
+            } else {
+                ByteBuf dst = out.alloc().heapBuffer(maxLength);
+                try {
+                    int n = compressBlock(srcArray, srcOffset, srcLength,
+                            dst.array(), dst.arrayOffset(), HASH_TABLE.get());
+                    out.writeBytes(dst.array(), dst.arrayOffset(), n);
+                } finally {
+                    dst.release();
+                }
+            }
+            in.skipBytes(srcLength);
+        } finally {
+            src.release();
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        if (in.readableBytes() < HEADER_LENGTH) {
+            throw new IllegalArgumentException("lz4 block is truncated");
+        }
+        int blockLength = in.readableBytes() - HEADER_LENGTH;
+        int length = readLength(in.readInt(), blockLength);
+        ByteBuf src = toHeap(in, blockLength);
+        try {
+            byte[] srcArray = src.array();
+            int srcOffset = src.arrayOffset() + src.readerIndex();
+            out.ensureWritable(length);
+            if (out.hasArray()) {
+                decompressBlock(srcArray, srcOffset, blockLength,
+                        out.array(), out.arrayOffset() + out.writerIndex(), length);
+                out.writerIndex(out.writerIndex() + length);
+            } else {
+                ByteBuf dst = out.alloc().heapBuffer(length);
+                try {
+                    decompressBlock(srcArray, srcOffset, blockLength, dst.array(), dst.arrayOffset(), length);
+                    out.writeBytes(dst.array(), dst.arrayOffset(), length);
+                } finally {
+                    dst.release();
+                }
+            }
+            in.skipBytes(blockLength);
+        } finally {
+            src.release();
+        }
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @return a retained view of the next {@code length} readable bytes backed by a heap array
+     */
+    private static ByteBuf toHeap(ByteBuf in, int length) {
+        if (in.hasArray()) {
+            return in.retainedSlice(in.readerIndex(), length);
+        }
+        ByteBuf heap = in.alloc().heapBuffer(length);
+        heap.writeBytes(in, in.readerIndex(), length);
+        return heap;
+    }
+
+    private int readLength(byte[] src, int offset, int blockLength) {
+        int length = ((src[offset] & 0xFF) << 24) | ((src[offset + 1] & 0xFF) << 16)
+                | ((src[offset + 2] & 0xFF) << 8) | (src[offset + 3] & 0xFF);
+        return readLength(length, blockLength);
+    }
+
+    private int readLength(int length, int blockLength) {
+        // a block can not expand more than 255x, anything else is a corrupt or hostile header
+        if (length < 0 || length > (long) blockLength * 255 + 16) {
+            throw new IllegalArgumentException("invalid lz4 uncompressed length: " + length);
+        }
+        if (length > maxDecompressedSize) {
+            throw new IllegalArgumentException("lz4 uncompressed length " + length
+                    + " exceeds limit " + maxDecompressedSize);
+        }
+        return length;
+    }
+
+    /**
+     * @return number of bytes written to dst
+     */
+    static int compressBlock(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] hashTable) {
+        int dp = dstOff;
+        int anchor = 0;
+        if (srcLen > MF_LIMIT) {
+            int matchStartLimit = srcLen - MF_LIMIT;
+            int matchEndLimit = srcLen - LAST_LITERALS;
+            int ip = 0;
+            int searchCount = 1 << SKIP_TRIGGER;
+            while (ip < matchStartLimit) {
+                int sequence = readIntLE(src, srcOff + ip);
+                int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = ip;
+                if (ref >= ip || ip - ref > MAX_DISTANCE || readIntLE(src, srcOff + ref) != sequence) {
+                    ip += searchCount++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searchCount = 1 << SKIP_TRIGGER;
+                // extend the match backwards over pending literals
+                while (ip > anchor && ref > 0 && src[srcOff + ip - 1] == src[srcOff + ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < matchEndLimit
+                        && src[srcOff + ip + matchLength] == src[srcOff + ref + matchLength]) {
+                    matchLength++;
+                }
+                dp = writeSequence(src, srcOff + anchor, ip - anchor, ip - ref, matchLength, dst, dp);
+                ip += matchLength;
+                anchor = ip;
+                if (ip < matchStartLimit) {
+                    // index a position inside the match so that the next search has a fresh candidate
+                    hashTable[hash(readIntLE(src, srcOff + ip - 2))] = ip - 2;
+                }
+            }
+        }
+        dp = writeLastLiterals(src, srcOff + anchor, srcLen - anchor, dst, dp);
+        return dp - dstOff;
+    }
+
+    static void decompressBlock(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (literalLength > srcEnd - ip || literalLength > dstEnd - op) {
+                    throw new IllegalArgumentException("malformed lz4 block: literals out of range");
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == srcEnd) {
+                    break;
+                }
+                if (srcEnd - ip < 2) {
+                    throw new IllegalArgumentException("malformed lz4 block: truncated offset");
+                }
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff) {
+                    throw new IllegalArgumentException("malformed lz4 block: invalid offset " + offset);
+                }
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (matchLength > dstEnd - op) {
+                    throw new IllegalArgumentException("malformed lz4 block: match out of range");
+                }
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // overlapping copy repeats the last offset bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("malformed lz4 block: truncated input", e);
+        }
+        if (op != dstEnd) {
+            throw new IllegalArgumentException("malformed lz4 block: expected " + dstLen + " bytes but got " + (op - dstOff));
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength,
+                                     byte[] dst, int dp) {
+        int tokenIndex = dp++;
+        int token;
+        if (literalLength >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            dp = writeLength(literalLength - RUN_MASK, dst, dp);
+        } else {
+            token = literalLength << 4;
+        }
+        System.arraycopy(src, literalStart, dst, dp, literalLength);
+        dp += literalLength;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+        int extraMatch = matchLength - MIN_MATCH;
+        if (extraMatch >= RUN_MASK) {
+            token |= RUN_MASK;
+            dp = writeLength(extraMatch - RUN_MASK, dst, dp);
+        } else {
+            token |= extraMatch;
+        }
+        dst[tokenIndex] = (byte) token;
+        return dp;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalStart, int literalLength, byte[] dst, int dp) {
+        if (literalLength >= RUN_MASK) {
+            dst[dp++] = (byte) (RUN_MASK << 4);
+            dp = writeLength(literalLength - RUN_MASK, dst, dp);
+        } else {
+            dst[dp++] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(src, literalStart, dst, dp, literalLength);
+        return dp + literalLength;
+    }
+
+    private static int writeLength(int length, byte[] dst, int dp) {
+        while (length >= 255) {
+            dst[dp++] = (byte) 255;
+            length -= 255;
+        }
+        dst[dp++] = (byte) length;
+        return dp;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readIntLE(byte[] buf, int i) {
+        return (buf[i] & 0xFF) | ((buf[i + 1] & 0xFF) << 8) | ((buf[i + 2] & 0xFF) << 16) | ((buf[i + 3] & 0xFF) << 24);
+    }
+
+    private static void writeIntBE(byte[] buf, int i, int value) {
+        buf[i] = (byte) (value >>> 24);
+        buf[i + 1] = (byte) (value >>> 16);
+        buf[i + 2] = (byte) (value >>> 8);
+        buf[i + 3] = (byte) value;
+    }
+}
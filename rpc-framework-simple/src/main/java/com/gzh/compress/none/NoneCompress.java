@@ -0,0 +1,35 @@
+package com.gzh.compress.none;
+
+import com.gzh.compress.Compress;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 不做任何压缩，消息体原样传输
+ */
+public class NoneCompress implements Compress {
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        return bytes;
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        return bytes;
+    }
+
+    @Override
+    public void compress(ByteBuf in, ByteBuf out) {
+        out.writeBytes(in);
+    }
+
+    @Override
+    public void decompress(ByteBuf in, ByteBuf out) {
+        out.writeBytes(in);
+    }
+}
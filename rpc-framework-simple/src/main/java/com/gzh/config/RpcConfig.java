@@ -0,0 +1,82 @@
+package com.gzh.config;
+
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.utils.PropertiesFileUtil;
+import com.gzh.utils.StringUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+/**
+ * rpc.properties 中可选配置项的读取入口，文件或配置项缺失、格式错误时使用默认值
+ */
+@Slf4j
+public final class RpcConfig {
+    private static final Properties PROPERTIES = load();
+
+    private RpcConfig() {
+    }
+
+    public static String getString(RpcConfigEnum key, String defaultValue) {
+        String value = PROPERTIES.getProperty(key.getPropertyValue());
+        return StringUtil.isBlank(value) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(RpcConfigEnum key, int defaultValue) {
+        return get(key, defaultValue, Integer::parseInt);
+    }
+
+    public static long getLong(RpcConfigEnum key, long defaultValue) {
+        return get(key, defaultValue, Long::parseLong);
+    }
+
+    public static double getDouble(RpcConfigEnum key, double defaultValue) {
+        return get(key, defaultValue, Double::parseDouble);
+    }
+
+    public static boolean getBoolean(RpcConfigEnum key, boolean defaultValue) {
+        return get(key, defaultValue, Boolean::parseBoolean);
+    }
+
+    /**
+     * 获取所有以 prefix 开头的配置项
+     *
+     * @return 去掉前缀后的 key 到 value 的映射
+     */
+    public static Map<String, String> getByPrefix(RpcConfigEnum prefix) {
+        String p = prefix.getPropertyValue();
+        Map<String, String> result = new HashMap<>();
+        for (String name : PROPERTIES.stringPropertyNames()) {
+            if (name.startsWith(p) && name.length() > p.length()) {
+                result.put(name.substring(p.length()), PROPERTIES.getProperty(name).trim());
+            }
+        }
+        return result;
+    }
+
+    private static <T> T get(RpcConfigEnum key, T defaultValue, Function<String, T> parser) {
+        String value = PROPERTIES.getProperty(key.getPropertyValue());
+        if (StringUtil.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return parser.apply(value.trim());
+        } catch (RuntimeException e) {
+            log.warn("invalid value [{}] for [{}], use default [{}]", value, key.getPropertyValue(), defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static Properties load() {
+        try {
+            Properties properties = PropertiesFileUtil.readPropertiesFile(RpcConfigEnum.RPC_CONFIG_PATH.getPropertyValue());
+            return properties != null ? properties : new Properties();
+        } catch (RuntimeException e) {
+            log.warn("can not read [{}], use default config", RpcConfigEnum.RPC_CONFIG_PATH.getPropertyValue());
+            return new Properties();
+        }
+    }
+}
@@ -12,6 +12,10 @@ public class RpcServiceConfig {
     private String version = "";
     private String group = "";
     private Object service;
+    /**
+     * client side: call timeout in milliseconds for the referenced service, 0 means the configured default
+     */
+    private long timeout;
 
     public String getRpcServiceName() {
         return this.getServiceName()+this.getGroup()+this.getVersion();
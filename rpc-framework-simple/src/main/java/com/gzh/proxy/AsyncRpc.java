@@ -0,0 +1,67 @@
+package com.gzh.proxy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 以异步方式调用同步接口：
+ * <pre>
+ *     CompletableFuture&lt;String&gt; future = AsyncRpc.call(() -&gt; helloService.hello(hello));
+ * </pre>
+ * supplier 中对 RPC 代理的调用不会等待结果，而是立即返回默认值（null、0、false），
+ * 真正的结果通过返回的 future 得到，future 在 I/O 线程上完成，回调中不要执行阻塞操作。
+ * supplier 中必须恰好发起一次 RPC 调用。
+ */
+public final class AsyncRpc {
+    private static final ThreadLocal<CompletableFuture<?>[]> CAPTURING = new ThreadLocal<>();
+
+    private AsyncRpc() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> call(Supplier<T> invocation) {
+        CompletableFuture<?>[] captured = new CompletableFuture<?>[1];
+        CompletableFuture<?>[] previous = CAPTURING.get();
+        CAPTURING.set(captured);
+        try {
+            invocation.get();
+        } finally {
+            if (previous == null) {
+                CAPTURING.remove();
+            } else {
+                CAPTURING.set(previous);
+            }
+        }
+        if (captured[0] == null) {
+            throw new IllegalStateException("no rpc call was made in AsyncRpc.call");
+        }
+        return (CompletableFuture<T>) captured[0];
+    }
+
+    /**
+     * 用于返回 void 的方法
+     */
+    public static CompletableFuture<Void> run(Runnable invocation) {
+        return call(() -> {
+            invocation.run();
+            return null;
+        }).thenApply(result -> null);
+    }
+
+    /**
+     * 代理在 AsyncRpc.call 中被调用时交出调用结果
+     *
+     * @return 是否被接收，接收后代理应立即返回
+     */
+    static boolean capture(CompletableFuture<?> future) {
+        CompletableFuture<?>[] captured = CAPTURING.get();
+        if (captured == null) {
+            return false;
+        }
+        if (captured[0] != null) {
+            throw new IllegalStateException("only one rpc call is allowed in AsyncRpc.call");
+        }
+        captured[0] = future;
+        return true;
+    }
+}
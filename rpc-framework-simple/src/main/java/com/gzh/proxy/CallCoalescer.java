@@ -0,0 +1,93 @@
+package com.gzh.proxy;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 合并相同的并发调用（single-flight），用于 @RpcMethod(coalesce = true) 的方法：
+ * 同一服务、同一方法、参数相等（Arrays.deepEquals）的调用在前一个调用返回之前发起时，不再发送请求，直接等待前一个调用的结果。
+ * <p>
+ * 只合并同时进行中的调用，结果返回后立即移除，不是缓存。调用方拿到的都是各自的 future，取消其中一个不影响其他调用方。
+ * 参数的哈希值只在发起调用时用 Arrays.deepHashCode 计算一次；调用进行期间不要修改参数对象。
+ * <p>
+ * {@link #getCoalesceRatio()} 等方法返回被合并的调用占比。
+ */
+public class CallCoalescer {
+    private final Map<CallKey, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+    private final Counters total = new Counters();
+
+    /**
+     * @param methodKey 区分服务（含 group、version）和方法（含参数类型）的字符串
+     * @param call      没有相同的调用在进行时发起调用
+     */
+    public CompletableFuture<Object> call(String methodKey, Object[] args, Supplier<CompletableFuture<Object>> call) {
+        Counters methodCounters = counters.computeIfAbsent(methodKey, k -> new Counters());
+        total.calls.increment();
+        methodCounters.calls.increment();
+
+        CallKey key = new CallKey(methodKey, args);
+        CompletableFuture<Object> shared = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inflight.putIfAbsent(key, shared);
+        if (existing != null) {
+            total.coalesced.increment();
+            methodCounters.coalesced.increment();
+            return existing.thenApply(Function.identity());
+        }
+        try {
+            call.get().whenComplete((result, e) -> {
+                // 先移除再完成，之后的调用不会拿到已经完成的结果
+                inflight.remove(key, shared);
+                if (e == null) {
+                    shared.complete(result);
+                } else {
+                    shared.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            inflight.remove(key, shared);
+            shared.completeExceptionally(e);
+        }
+        return shared.thenApply(Function.identity());
+    }
+
+    public long getCalls() {
+        return total.calls.sum();
+    }
+
+    public long getCoalesced() {
+        return total.coalesced.sum();
+    }
+
+    /**
+     * 被合并的调用占全部调用的比例
+     */
+    public double getCoalesceRatio() {
+        return total.ratio();
+    }
+
+    /**
+     * 各方法被合并的调用占比
+     */
+    public Map<String, Double> getCoalesceRatios() {
+        Map<String, Double> ratios = new HashMap<>();
+        counters.forEach((methodKey, methodCounters) -> ratios.put(methodKey, methodCounters.ratio()));
+        return Collections.unmodifiableMap(ratios);
+    }
+
+    private static final class Counters {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+
+        double ratio() {
+            long n = calls.sum();
+            return n == 0 ? 0 : (double) coalesced.sum() / n;
+        }
+    }
+}
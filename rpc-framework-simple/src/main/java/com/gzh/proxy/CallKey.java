@@ -0,0 +1,47 @@
+package com.gzh.proxy;
+
+import java.util.Arrays;
+
+/**
+ * 方法 + 参数组成的键，{@link CallCoalescer} 和 {@link ResultCache} 使用。
+ * 哈希值只在创建时用 Arrays.deepHashCode 计算一次，参数按 Arrays.deepEquals 比较。
+ */
+final class CallKey {
+    private final String methodKey;
+    private final Object[] args;
+    private final int hash;
+
+    CallKey(String methodKey, Object[] args) {
+        this(methodKey, args, 31 * methodKey.hashCode() + Arrays.deepHashCode(args));
+    }
+
+    private CallKey(String methodKey, Object[] args, int hash) {
+        this.methodKey = methodKey;
+        this.args = args;
+        this.hash = hash;
+    }
+
+    /**
+     * 复制参数数组，供长期保存的键使用，调用方之后复用参数数组不会影响它
+     */
+    CallKey detach() {
+        return args == null ? this : new CallKey(methodKey, args.clone(), hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CallKey)) {
+            return false;
+        }
+        CallKey other = (CallKey) o;
+        return hash == other.hash && methodKey.equals(other.methodKey) && Arrays.deepEquals(args, other.args);
+    }
+}
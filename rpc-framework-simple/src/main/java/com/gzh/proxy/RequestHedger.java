@@ -0,0 +1,243 @@
+package com.gzh.proxy;
+
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.enums.ServiceDiscoveryEnum;
+import com.gzh.extension.ExtensionLoader;
+import com.gzh.registry.ServiceDiscovery;
+import com.gzh.remoting.constants.RpcConstants;
+import com.gzh.remoting.dto.RpcRequest;
+import com.gzh.remoting.dto.RpcResponse;
+import com.gzh.remoting.transport.netty.client.NettyRpcClient;
+import com.gzh.utils.concurrent.threadpool.CustomThreadPoolConfig;
+import com.gzh.utils.concurrent.threadpool.ThreadPoolFactoryUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对冲请求：幂等方法的请求超过对冲延迟仍未返回时，排除第一个请求的服务端，由 LoadBalance 另选一个服务端再发一次。
+ * 先返回的响应生效，另一个请求随即取消，客户端不再等待它，迟到的响应在解码前丢弃。
+ * 请求失败不会触发对冲（那是重试）；两个请求都已发出时，全部失败才算失败。
+ * <p>
+ * 对冲延迟依次取 @RpcMethod#hedgeDelay、rpc.client.hedge.delay-ms，都没有配置时取该方法最近调用耗时的 p95，样本不足时不对冲。
+ * 对冲预算：每次调用为该方法积累 rpc.client.hedge.budget-percent / 100 个令牌，每次对冲消耗 1 个，
+ * 因此额外的请求不超过调用量的这个比例。
+ * <p>
+ * v1 连接上请求 id 写在请求对象里，调用方只能按第一个请求的 id 校验响应，因此 v1 不对冲。
+ * 计时线程只负责到点提交任务，查找另一个服务端（可能要查注册中心、解析地址）在 rpc-hedge-lookup 线程池中进行，
+ * 一次慢的查找不会推迟排在后面的对冲。
+ */
+@Slf4j
+public class RequestHedger {
+    private static final ScheduledThreadPoolExecutor SCHEDULER = scheduler();
+    private static final String LOOKUP_POOL_NAME = "rpc-hedge-lookup";
+    private static final CustomThreadPoolConfig LOOKUP_POOL_CONFIG = new CustomThreadPoolConfig();
+    private static final int DEFAULT_BUDGET_PERCENT = 5;
+    // 令牌上限，允许短时间内连续对冲的次数
+    private static final double MAX_TOKENS = 10;
+    // 每个方法保留最近这么多次调用的耗时
+    private static final int LATENCY_SAMPLES = 256;
+    // 样本数达到后才计算 p95
+    private static final int MIN_SAMPLES = 32;
+    // 每记录这么多个样本重新计算一次 p95
+    private static final int PERCENTILE_REFRESH = 64;
+
+    private final boolean enabled;
+    private final long defaultDelayMillis;
+    private final double budgetRatio;
+    private final ServiceDiscovery serviceDiscovery;
+    private final Map<String, MethodStats> methodStats = new ConcurrentHashMap<>();
+
+    public RequestHedger() {
+        this.enabled = RpcConfig.getBoolean(RpcConfigEnum.CLIENT_HEDGE_ENABLED, true);
+        this.defaultDelayMillis = RpcConfig.getLong(RpcConfigEnum.CLIENT_HEDGE_DELAY, 0);
+        this.budgetRatio = Math.max(0, RpcConfig.getDouble(RpcConfigEnum.CLIENT_HEDGE_BUDGET_PERCENT, DEFAULT_BUDGET_PERCENT)) / 100;
+        this.serviceDiscovery = ExtensionLoader.getExtensionLoader(ServiceDiscovery.class).getExtension(ServiceDiscoveryEnum.ZK.getName());
+    }
+
+    private static ScheduledThreadPoolExecutor scheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new DefaultThreadFactory("rpc-hedge", true));
+        // 大部分请求在对冲延迟内返回，取消的任务立即移出队列
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    public boolean isEnabled() {
+        return enabled && budgetRatio > 0;
+    }
+
+    /**
+     * @param delayMillis 大于 0 时为固定的对冲延迟，否则使用 rpc.client.hedge.delay-ms 或该方法调用耗时的 p95
+     */
+    public CompletableFuture<RpcResponse<Object>> send(NettyRpcClient client, RpcRequest rpcRequest,
+                                                       long delayMillis, long timeoutMillis) {
+        MethodStats stats = methodStats.computeIfAbsent(rpcRequest.getMethodKey(), k -> new MethodStats());
+        stats.deposit(budgetRatio);
+        long delayNanos = delayMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(delayMillis)
+                : defaultDelayMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(defaultDelayMillis) : stats.p95Nanos;
+
+        long startNanos = System.nanoTime();
+        InetSocketAddress primary = serviceDiscovery.lookupService(rpcRequest);
+        HedgedCall call = new HedgedCall();
+        call.track(client.sendRpsRequest(rpcRequest, primary, timeoutMillis));
+        call.result.whenComplete((r, e) -> {
+            if (e == null) {
+                stats.record(System.nanoTime() - startNanos);
+            }
+        });
+        if (client.getProtocolVersion() != RpcConstants.VERSION_1 && delayNanos > 0 && !call.result.isDone()) {
+            ScheduledFuture<?> hedge = SCHEDULER.schedule(() -> submitHedge(client, rpcRequest, primary, timeoutMillis, call, stats),
+                    delayNanos, TimeUnit.NANOSECONDS);
+            call.result.whenComplete((r, e) -> hedge.cancel(false));
+        }
+        return call.result;
+    }
+
+    private void submitHedge(NettyRpcClient client, RpcRequest rpcRequest, InetSocketAddress primary, long timeoutMillis,
+                             HedgedCall call, MethodStats stats) {
+        if (call.result.isDone()) {
+            return;
+        }
+        try {
+            ThreadPoolFactoryUtil.createCustomThreadPoolIfAbsent(LOOKUP_POOL_CONFIG, LOOKUP_POOL_NAME, true)
+                    .execute(() -> hedge(client, rpcRequest, primary, timeoutMillis, call, stats));
+        } catch (RejectedExecutionException e) {
+            // 查找积压时放弃这次对冲，第一个请求照常等待
+            log.debug("skip hedging [{}], lookup pool is busy", rpcRequest.getMethodKey());
+        }
+    }
+
+    private void hedge(NettyRpcClient client, RpcRequest rpcRequest, InetSocketAddress primary, long timeoutMillis,
+                       HedgedCall call, MethodStats stats) {
+        if (call.result.isDone()) {
+            return;
+        }
+        InetSocketAddress other;
+        try {
+            other = serviceDiscovery.lookupService(rpcRequest, Collections.singleton(primary));
+        } catch (RuntimeException e) {
+            log.warn("failed to look up another provider for hedging [{}]", rpcRequest.getMethodKey(), e);
+            return;
+        }
+        // 只有一个服务端时不对冲；第一个请求已经失败时也不再发出
+        if (other == null || !stats.tryWithdraw()) {
+            return;
+        }
+        if (!call.reserve()) {
+            stats.refund();
+            return;
+        }
+        log.debug("hedge [{}] to [{}] after [{}] did not answer", rpcRequest.getMethodKey(), other, primary);
+        call.track(client.sendRpsRequest(copy(rpcRequest), other, timeoutMillis));
+    }
+
+    /**
+     * 两个请求走不同的连接，各自在发送时处理，对冲请求使用副本，不与第一个请求共享对象
+     */
+    private static RpcRequest copy(RpcRequest rpcRequest) {
+        return RpcRequest.builder()
+                .interfaceName(rpcRequest.getInterfaceName())
+                .methodName(rpcRequest.getMethodName())
+                .parameters(rpcRequest.getParameters())
+                .paramTypes(rpcRequest.getParamTypes())
+                .version(rpcRequest.getVersion())
+                .group(rpcRequest.getGroup())
+                .methodId(rpcRequest.getMethodId())
+                .build();
+    }
+
+    private static final class HedgedCall {
+        private final CompletableFuture<RpcResponse<Object>> result = new CompletableFuture<>();
+        private final List<CompletableFuture<RpcResponse<Object>>> attempts = new CopyOnWriteArrayList<>();
+        // 尚未结束的请求数，包括已预留、即将发出的对冲请求
+        private final AtomicInteger running = new AtomicInteger(1);
+
+        HedgedCall() {
+            // 有了结果（或调用方取消）后取消其余请求
+            result.whenComplete((r, e) -> attempts.forEach(attempt -> attempt.cancel(false)));
+        }
+
+        /**
+         * 为对冲请求预留位置；所有已发出的请求都已失败时返回 false
+         */
+        boolean reserve() {
+            for (;;) {
+                int current = running.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (running.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void track(CompletableFuture<RpcResponse<Object>> attempt) {
+            attempts.add(attempt);
+            attempt.whenComplete((r, e) -> {
+                if (e == null) {
+                    result.complete(r);
+                } else if (running.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
+                }
+            });
+            if (result.isDone()) {
+                attempt.cancel(false);
+            }
+        }
+    }
+
+    private static final class MethodStats {
+        private final long[] latencies = new long[LATENCY_SAMPLES];
+        private int next;
+        private int size;
+        private int sinceRefresh;
+        private double tokens;
+        // 样本不足时为 -1
+        private volatile long p95Nanos = -1;
+
+        synchronized void record(long nanos) {
+            latencies[next] = nanos;
+            next = (next + 1) % LATENCY_SAMPLES;
+            if (size < LATENCY_SAMPLES) {
+                size++;
+            }
+            if (size >= MIN_SAMPLES && (p95Nanos < 0 || ++sinceRefresh >= PERCENTILE_REFRESH)) {
+                sinceRefresh = 0;
+                long[] sorted = Arrays.copyOf(latencies, size);
+                Arrays.sort(sorted);
+                p95Nanos = sorted[(int) Math.ceil(size * 0.95) - 1];
+            }
+        }
+
+        synchronized void deposit(double amount) {
+            tokens = Math.min(MAX_TOKENS, tokens + amount);
+        }
+
+        synchronized boolean tryWithdraw() {
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        synchronized void refund() {
+            tokens = Math.min(MAX_TOKENS, tokens + 1);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.gzh.proxy;
+
+import com.gzh.annotation.RpcCacheable;
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 客户端结果缓存，用于 {@link RpcCacheable} 标记的方法（rpc.client.cache.enabled=false 时全部关闭）。
+ * <p>
+ * 每个方法一个 {@link Region}，按参数哈希分成若干段，每段是按访问顺序排列的 LinkedHashMap，超过容量时淘汰最久未使用的结果；
+ * 读写只锁住一段。命中时直接返回已完成的 future，不经过网络。
+ * 过期的结果在下次访问时移除；配置了 refreshAhead 时，临近过期的命中仍返回缓存值，同时在后台发起一次调用刷新
+ * （每个结果同时只有一次刷新）。未命中时发起调用，成功后写入缓存；缓存失效时的并发穿透可以配合 @RpcMethod(coalesce = true) 合并。
+ * <p>
+ * {@link #getHitRatio()} 等方法返回命中率。
+ */
+public class ResultCache {
+    /**
+     * 不缓存的方法
+     */
+    public static final Region DISABLED = new Region("", 0, 1, 0);
+    // 每段至少这么多个结果，段数不超过 MAX_SEGMENTS
+    private static final int MIN_SEGMENT_SIZE = 16;
+    private static final int MAX_SEGMENTS = 16;
+
+    private final boolean enabled = RpcConfig.getBoolean(RpcConfigEnum.CLIENT_CACHE_ENABLED, true);
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+    /**
+     * 方法的缓存区域，同一个 methodKey 共用一个区域（以第一次创建时的注解配置为准）
+     *
+     * @param methodKey 区分服务（含 group、version）和方法（含参数类型）的字符串
+     */
+    public Region region(String methodKey, RpcCacheable cacheable) {
+        if (!enabled || cacheable == null || cacheable.ttl() <= 0 || cacheable.maxEntries() <= 0) {
+            return DISABLED;
+        }
+        return regions.computeIfAbsent(methodKey, k -> new Region(methodKey, TimeUnit.MILLISECONDS.toNanos(cacheable.ttl()),
+                cacheable.maxEntries(), TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheable.refreshAhead()))));
+    }
+
+    public long getHits() {
+        return regions.values().stream().mapToLong(region -> region.hits.sum()).sum();
+    }
+
+    public long getMisses() {
+        return regions.values().stream().mapToLong(region -> region.misses.sum()).sum();
+    }
+
+    /**
+     * 所有方法合计的命中率
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 各方法的命中率
+     */
+    public Map<String, Double> getHitRatios() {
+        Map<String, Double> ratios = new HashMap<>();
+        regions.forEach((methodKey, region) -> ratios.put(methodKey, region.getHitRatio()));
+        return Collections.unmodifiableMap(ratios);
+    }
+
+    public static final class Region {
+        private final String methodKey;
+        private final long ttlNanos;
+        private final long refreshAheadNanos;
+        private final Segment[] segments;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder refreshes = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        private Region(String methodKey, long ttlNanos, int maxEntries, long refreshAheadNanos) {
+            this.methodKey = methodKey;
+            this.ttlNanos = ttlNanos;
+            this.refreshAheadNanos = Math.min(refreshAheadNanos, ttlNanos);
+            int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, maxEntries / MIN_SEGMENT_SIZE)));
+            this.segments = new Segment[count];
+            int segmentSize = (maxEntries + count - 1) / count;
+            for (int i = 0; i < count; i++) {
+                segments[i] = new Segment(segmentSize);
+            }
+        }
+
+        /**
+         * 命中时返回缓存的结果，否则通过 loader 发起调用
+         */
+        public CompletableFuture<Object> get(Object[] args, Supplier<CompletableFuture<Object>> loader) {
+            CallKey key = new CallKey(methodKey, args);
+            Segment segment = segment(key);
+            long now = System.nanoTime();
+            Entry entry;
+            synchronized (segment) {
+                entry = segment.get(key);
+                if (entry != null && now - entry.expireAtNanos >= 0) {
+                    segment.remove(key);
+                    entry = null;
+                }
+            }
+            if (entry == null) {
+                misses.increment();
+                CompletableFuture<Object> future = loader.get();
+                future.whenComplete((value, e) -> {
+                    if (e == null) {
+                        put(key.detach(), value);
+                    }
+                });
+                return future;
+            }
+            hits.increment();
+            if (refreshAheadNanos > 0 && now - (entry.expireAtNanos - refreshAheadNanos) >= 0
+                    && entry.refreshing.compareAndSet(false, true)) {
+                refresh(key, entry, loader);
+            }
+            return CompletableFuture.completedFuture(entry.value);
+        }
+
+        private void refresh(CallKey key, Entry entry, Supplier<CompletableFuture<Object>> loader) {
+            refreshes.increment();
+            CompletableFuture<Object> future;
+            try {
+                future = loader.get();
+            } catch (RuntimeException e) {
+                // 刷新失败不影响本次命中，之后的命中会再次尝试
+                entry.refreshing.set(false);
+                return;
+            }
+            future.whenComplete((value, e) -> {
+                if (e == null) {
+                    put(key.detach(), value);
+                } else {
+                    entry.refreshing.set(false);
+                }
+            });
+        }
+
+        private void put(CallKey key, Object value) {
+            Entry entry = new Entry(value, System.nanoTime() + ttlNanos);
+            Segment segment = segment(key);
+            synchronized (segment) {
+                segment.put(key, entry);
+            }
+        }
+
+        private Segment segment(CallKey key) {
+            int h = key.hashCode();
+            // 打散高位，段数是 2 的幂
+            h ^= h >>> 16;
+            return segments[h & (segments.length - 1)];
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getRefreshes() {
+            return refreshes.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+        public double getHitRatio() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        private final class Segment extends LinkedHashMap<CallKey, Entry> {
+            private static final long serialVersionUID = 1L;
+            private final int capacity;
+
+            Segment(int capacity) {
+                // 按访问顺序排列，最久未使用的在最前面
+                super(16, 0.75f, true);
+                this.capacity = capacity;
+            }
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CallKey, Entry> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long expireAtNanos;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Object value, long expireAtNanos) {
+            this.value = value;
+            this.expireAtNanos = expireAtNanos;
+        }
+    }
+}
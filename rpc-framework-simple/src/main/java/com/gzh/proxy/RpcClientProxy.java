@@ -1,9 +1,14 @@
 package com.gzh.proxy;
 
+import com.gzh.annotation.RpcCacheable;
+import com.gzh.annotation.RpcMethod;
+import com.gzh.config.RpcConfig;
 import com.gzh.config.RpcServiceConfig;
+import com.gzh.enums.RpcConfigEnum;
 import com.gzh.enums.RpcErrorMessageEnum;
 import com.gzh.enums.RpcResponseCodeEnum;
 import com.gzh.exception.RpcException;
+import com.gzh.factory.SingletonFactory;
 import com.gzh.remoting.dto.RpcRequest;
 import com.gzh.remoting.dto.RpcResponse;
 import com.gzh.remoting.transport.RpcRequestTransport;
@@ -14,18 +19,41 @@ import lombok.extern.slf4j.Slf4j;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.UUID;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class RpcClientProxy implements InvocationHandler {
     private static final String INTERFACE_NAME = "interfaceName";
+    // 方法编号全局唯一，同一方法在不同 group/version 的代理上编号不同
+    private static final AtomicInteger METHOD_ID_SEQUENCE = new AtomicInteger();
+    // rpc.client.timeout. 之后的 接口全名[.方法名] 到超时毫秒数
+    private static final Map<String, Long> TIMEOUT_OVERRIDES = timeoutOverrides();
     private final RpcRequestTransport rpcRequestTranSport;
     private final RpcServiceConfig rpsServiceConfig;
+    private final Map<Method, Integer> methodIds = new ConcurrentHashMap<>();
+    private final Map<Method, Long> timeouts = new ConcurrentHashMap<>();
+    // 方法的对冲延迟：-1 不对冲，0 由 RequestHedger 决定
+    private final Map<Method, Long> hedgeDelays = new ConcurrentHashMap<>();
+    // 合并调用时区分服务和方法的字符串，不合并的方法为空串
+    private final Map<Method, String> coalesceKeys = new ConcurrentHashMap<>();
+    private final Map<Method, ResultCache.Region> cacheRegions = new ConcurrentHashMap<>();
+    private final RequestHedger requestHedger;
+    private final CallCoalescer callCoalescer;
+    private final ResultCache resultCache;
 
     public RpcClientProxy(RpcRequestTransport rpcRequestTranSport, RpcServiceConfig rpcServiceConfig) {
         this.rpsServiceConfig = rpcServiceConfig;
         this.rpcRequestTranSport = rpcRequestTranSport;
+        this.requestHedger = SingletonFactory.getInstance(RequestHedger.class);
+        this.callCoalescer = SingletonFactory.getInstance(CallCoalescer.class);
+        this.resultCache = SingletonFactory.getInstance(ResultCache.class);
     }
 
     public <T> T getProxy(Class<T> clazz) {
@@ -34,28 +62,161 @@ public class RpcClientProxy implements InvocationHandler {
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        ResultCache.Region cacheRegion = cacheRegions.computeIfAbsent(method,
+                m -> resultCache.region(methodKey(m), m.getAnnotation(RpcCacheable.class)));
+        // 命中缓存时不构造请求，直接得到已完成的 future
+        CompletableFuture<Object> result = cacheRegion == ResultCache.DISABLED ? call(method, args)
+                : cacheRegion.get(args, () -> call(method, args));
+        if (AsyncRpc.capture(result)) {
+            // AsyncRpc.call 中的调用，结果由 AsyncRpc 交给调用方
+            return defaultValue(method.getReturnType());
+        }
+        if (isAsync(method)) {
+            // 返回 CompletableFuture 的方法直接交出 future，由 I/O 线程收到响应时完成
+            return result;
+        }
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    private CompletableFuture<Object> call(Method method, Object[] args) {
         RpcRequest rpcRequest = RpcRequest.builder()
                 .methodName(method.getName())
                 .parameters(args)
                 .interfaceName(method.getDeclaringClass().getName())
                 .paramTypes(method.getParameterTypes())
-                .requestId(UUID.randomUUID().toString())
                 .group(rpsServiceConfig.getGroup())
                 .version(rpsServiceConfig.getVersion())
+                .methodId(methodIds.computeIfAbsent(method, m -> METHOD_ID_SEQUENCE.incrementAndGet()))
                 .build();
-        RpcResponse<Object> rpcResponse = null;
+        long timeout = timeouts.computeIfAbsent(method, this::resolveTimeout);
+        String coalesceKey = coalesceKeys.computeIfAbsent(method, this::resolveCoalesceKey);
+        return coalesceKey.isEmpty() ? send(rpcRequest, method, timeout)
+                : callCoalescer.call(coalesceKey, args, () -> send(rpcRequest, method, timeout));
+    }
 
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Object> send(RpcRequest rpcRequest, Method method, long timeoutMillis) {
         if (rpcRequestTranSport instanceof NettyRpcClient) {
-            CompletableFuture<RpcResponse<Object>> future = (CompletableFuture<RpcResponse<Object>>) rpcRequestTranSport.sendRpsRequest(rpcRequest);
-            rpcResponse = future.get();
+            long hedgeDelay = hedgeDelays.computeIfAbsent(method, RpcClientProxy::resolveHedgeDelay);
+            CompletableFuture<RpcResponse<Object>> future = hedgeDelay >= 0 && requestHedger.isEnabled()
+                    ? requestHedger.send((NettyRpcClient) rpcRequestTranSport, rpcRequest, hedgeDelay, timeoutMillis)
+                    : (CompletableFuture<RpcResponse<Object>>) rpcRequestTranSport.sendRpsRequest(rpcRequest, timeoutMillis);
+            return future.thenApply(rpcResponse -> {
+                check(rpcResponse, rpcRequest);
+                return rpcResponse.getData();
+            });
+        }
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        try {
+            RpcResponse<Object> rpcResponse = null;
+            if (rpcRequestTranSport instanceof SocketRpcClient) {
+                rpcResponse = (RpcResponse<Object>) ((SocketRpcClient) rpcRequestTranSport).sendRpsRequest(rpcRequest);
+            }
+            check(rpcResponse, rpcRequest);
+            result.complete(rpcResponse.getData());
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * 超时时间按以下顺序取第一个配置了的：方法级配置、@RpcMethod、服务级配置、@RpcReference，
+     * 都没有时返回 0，由传输层使用 rpc.client.timeout-ms
+     */
+    private long resolveTimeout(Method method) {
+        String interfaceName = method.getDeclaringClass().getName();
+        Long configured = TIMEOUT_OVERRIDES.get(interfaceName + "." + method.getName());
+        if (configured != null) {
+            return configured;
+        }
+        RpcMethod rpcMethod = method.getAnnotation(RpcMethod.class);
+        if (rpcMethod != null && rpcMethod.timeout() > 0) {
+            return rpcMethod.timeout();
+        }
+        configured = TIMEOUT_OVERRIDES.get(interfaceName);
+        if (configured != null) {
+            return configured;
         }
+        return rpsServiceConfig.getTimeout();
+    }
 
-        if (rpcRequestTranSport instanceof SocketRpcClient) {
-            rpcResponse = (RpcResponse<Object>) ((SocketRpcClient) rpcRequestTranSport).sendRpsRequest(rpcRequest);
+    /**
+     * 只有 @RpcMethod(idempotent = true) 的方法可以对冲
+     */
+    private static long resolveHedgeDelay(Method method) {
+        RpcMethod rpcMethod = method.getAnnotation(RpcMethod.class);
+        if (rpcMethod == null || !rpcMethod.idempotent()) {
+            return -1;
         }
+        return Math.max(0, rpcMethod.hedgeDelay());
+    }
 
-        check(rpcResponse,rpcRequest);
-        return rpcResponse.getData();
+    /**
+     * 只有 @RpcMethod(coalesce = true) 的方法合并调用；group、version 不同的代理不合并
+     */
+    private String resolveCoalesceKey(Method method) {
+        RpcMethod rpcMethod = method.getAnnotation(RpcMethod.class);
+        if (rpcMethod == null || !rpcMethod.coalesce()) {
+            return "";
+        }
+        return methodKey(method);
+    }
+
+    /**
+     * 合并调用和结果缓存用来区分方法的字符串；group、version 不同的代理互不影响
+     */
+    private String methodKey(Method method) {
+        return rpsServiceConfig.getGroup() + "/" + rpsServiceConfig.getVersion() + "/" + method;
+    }
+
+    private static Map<String, Long> timeoutOverrides() {
+        Map<String, Long> result = new HashMap<>();
+        RpcConfig.getByPrefix(RpcConfigEnum.CLIENT_TIMEOUT_PREFIX).forEach((key, value) -> {
+            try {
+                result.put(key, Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                log.warn("invalid timeout [{}] for [{}], ignore it", value, key);
+            }
+        });
+        return result;
+    }
+
+    private static boolean isAsync(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return returnType == CompletableFuture.class || returnType == CompletionStage.class || returnType == Future.class;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == char.class) {
+            return '\0';
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == float.class) {
+            return 0F;
+        }
+        if (type == double.class) {
+            return 0D;
+        }
+        if (type == byte.class) {
+            return (byte) 0;
+        }
+        if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
     }
 
     private void check(RpcResponse<Object> rpcResponse, RpcRequest rpcRequest) {
@@ -63,7 +224,8 @@ public class RpcClientProxy implements InvocationHandler {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
 
-        if (!rpcRequest.getRequestId().equals(rpcResponse.getRequestId())) {
+        // v2 连接按帧头中的 id 匹配响应，此时请求里没有 requestId
+        if (rpcRequest.getRequestId() != null && !rpcRequest.getRequestId().equals(rpcResponse.getRequestId())) {
             throw new RpcException(RpcErrorMessageEnum.REQUEST_NOT_MATCH_RESPONSE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
 
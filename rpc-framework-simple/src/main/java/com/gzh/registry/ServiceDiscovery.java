@@ -4,8 +4,17 @@ import com.gzh.extension.SPI;
 import com.gzh.remoting.dto.RpcRequest;
 
 import java.net.InetSocketAddress;
+import java.util.Collection;
 
 @SPI
 public interface ServiceDiscovery {
     InetSocketAddress lookupService(RpcRequest rpcRequest);
+
+    /**
+     * 在 excluded 之外的地址中查找，没有其他可用地址时返回 null
+     */
+    default InetSocketAddress lookupService(RpcRequest rpcRequest, Collection<InetSocketAddress> excluded) {
+        InetSocketAddress address = lookupService(rpcRequest);
+        return excluded.contains(address) ? null : address;
+    }
 }
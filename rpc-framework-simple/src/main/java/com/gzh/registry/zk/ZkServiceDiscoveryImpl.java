@@ -14,6 +14,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 @Slf4j
@@ -35,6 +37,30 @@ public class ZkServiceDiscoveryImpl implements ServiceDiscovery {
 
         String serviceAddress = loadBalance.selectServiceAddress(childrenNodes, rpcRequest);
         log.info("success to find the serviceAddress: [{}]",serviceAddress);
+        return toInetSocketAddress(serviceAddress);
+    }
+
+    @Override
+    public InetSocketAddress lookupService(RpcRequest rpcRequest, Collection<InetSocketAddress> excluded) {
+        String rpcServiceName = rpcRequest.getRpcServiceName();
+        CuratorFramework zkClient = CuratorUtils.getZkClient();
+        List<String> childrenNodes = CuratorUtils.getChildrenNodes(zkClient, rpcServiceName);
+        if (CollectionUtils.isEmpty(childrenNodes)) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND);
+        }
+        List<String> candidates = new ArrayList<>(childrenNodes.size());
+        for (String childrenNode : childrenNodes) {
+            if (!excluded.contains(toInetSocketAddress(childrenNode))) {
+                candidates.add(childrenNode);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        return toInetSocketAddress(loadBalance.selectServiceAddress(candidates, rpcRequest));
+    }
+
+    private static InetSocketAddress toInetSocketAddress(String serviceAddress) {
         String[] split = serviceAddress.split(":");
         String host = split[0];
         int port = Integer.parseInt(split[1]);
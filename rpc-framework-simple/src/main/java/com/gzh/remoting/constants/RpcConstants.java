@@ -14,9 +14,20 @@ public class RpcConstants {
      * Magic number. Verify RpcMessage
      */
     public static final byte[] MAGIC_NUMBER = {(byte) 'g', (byte) 'r', (byte) 'p', (byte) 'c'};
+    /**
+     * {@link #MAGIC_NUMBER} read as one big-endian int, so it can be checked without a temporary array
+     */
+    public static final int MAGIC_NUMBER_INT = ('g' << 24) | ('r' << 16) | ('p' << 8) | 'c';
     public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
     //version information
-    public static final byte VERSION = 1;
+    public static final byte VERSION = 2;
+    /**
+     * v1 header: 4B requestId, generated by the encoder and not used for matching
+     */
+    public static final byte VERSION_1 = 1;
+    /**
+     * smallest header of all supported versions, a shorter frame can not be decoded
+     */
     public static final byte TOTAL_LENGTH = 16;
     public static final byte REQUEST_TYPE = 1;
     public static final byte RESPONSE_TYPE = 2;
@@ -24,9 +35,34 @@ public class RpcConstants {
     public static final byte HEARTBEAT_REQUEST_TYPE = 3;
     //pong
     public static final byte HEARTBEAT_RESPONSE_TYPE = 4;
-    public static final int HEAD_LENGTH = 16;
+    /**
+     * v2 only: first frame on a connection, negotiates serializer, compressors and dictionaries,
+     * body is {@link com.gzh.remoting.dto.RpcHandshake}, always hessian without compression
+     */
+    public static final byte HANDSHAKE_REQUEST_TYPE = 5;
+    public static final byte HANDSHAKE_RESPONSE_TYPE = 6;
+    /**
+     * v2 only, after both sides agreed on {@link com.gzh.remoting.dto.RpcHandshake#FEATURE_BATCH}:
+     * N requests or responses in one frame, body is 4B count followed by
+     * [8B requestId][4B length][serialized request or response] per call, compressed as a whole
+     */
+    public static final byte BATCH_REQUEST_TYPE = 7;
+    public static final byte BATCH_RESPONSE_TYPE = 8;
+    /**
+     * v2 header: 8B requestId, unique per connection, used to match the response
+     */
+    public static final int HEAD_LENGTH = 20;
+    public static final int HEAD_LENGTH_V1 = 16;
     public static final String PING = "ping";
     public static final String PONG = "pong";
     public static final int MAX_FRAME_LENGTH = 8 * 1024 * 1024;
 
+    public static boolean isSupportedVersion(byte version) {
+        return version == VERSION || version == VERSION_1;
+    }
+
+    public static int headLength(byte version) {
+        return version == VERSION_1 ? HEAD_LENGTH_V1 : HEAD_LENGTH;
+    }
+
 }
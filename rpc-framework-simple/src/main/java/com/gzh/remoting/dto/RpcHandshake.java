@@ -0,0 +1,45 @@
+package com.gzh.remoting.dto;
+
+import com.gzh.annotation.RpcCodec;
+import lombok.*;
+
+import java.io.Serializable;
+
+/**
+ * 连接建立后的握手消息。
+ * <p>
+ * 客户端发送自己支持的序列化方式（按偏好排序）、压缩方式和共享字典 id；
+ * 服务端回复选定的序列化方式（codecs 第一个元素，之后是其余双方都支持的序列化方式）、双方都支持的压缩方式和特性，
+ * 以及它认识的客户端字典 id。
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@Builder
+@ToString
+@RpcCodec
+public class RpcHandshake implements Serializable {
+    private static final long serialVersionUID = 4362720591470617541L;
+    /**
+     * batch frames, see {@link com.gzh.remoting.constants.RpcConstants#BATCH_REQUEST_TYPE}
+     */
+    public static final int FEATURE_BATCH = 1;
+    /**
+     * serialization type codes, most preferred first; in the answer the selected one first,
+     * followed by the other codecs both sides support
+     */
+    private byte[] codecs;
+    /**
+     * compress type codes
+     */
+    private byte[] compressors;
+    /**
+     * shared dictionary ids, see {@link com.gzh.compress.dict.DictionaryRegistry}
+     */
+    private int[] dictionaryIds;
+    /**
+     * optional protocol features, bitmask of FEATURE_*; the answer holds the features both sides support
+     */
+    private int features;
+}
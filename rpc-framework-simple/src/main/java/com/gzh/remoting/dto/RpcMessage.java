@@ -15,6 +15,10 @@ import lombok.*;
 @ToString
 public class RpcMessage {
 
+    /**
+     * protocol version, 0 means {@link com.gzh.remoting.constants.RpcConstants#VERSION}
+     */
+    private byte version;
     /**
      * rpc message type
      */
@@ -28,12 +32,16 @@ public class RpcMessage {
      */
     private byte compress;
     /**
-     * request id
+     * request id, unique per connection; the response carries the id of its request
      */
-    private int requestId;
+    private long requestId;
     /**
      * request data
      */
     private Object data;
+    /**
+     * interfaceName.methodName of the call, used by per-method policies; not written to the wire
+     */
+    private String methodKey;
 
 }
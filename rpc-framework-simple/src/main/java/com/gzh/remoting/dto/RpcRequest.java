@@ -1,5 +1,6 @@
 package com.gzh.remoting.dto;
 
+import com.gzh.annotation.RpcCodec;
 import lombok.*;
 
 import java.io.Serializable;
@@ -11,10 +12,16 @@ import java.io.Serializable;
 @AllArgsConstructor
 @NoArgsConstructor
 @Getter
+@Setter
 @Builder
 @ToString
+@RpcCodec
 public class RpcRequest implements Serializable {
     private static final long serialVersionUID = 1905122041950251207L;
+    /**
+     * only set for v1 connections, where the response is matched by the id inside the body;
+     * v2 matches by the id in the frame header
+     */
     private String requestId;
     private String interfaceName;
     private String methodName;
@@ -22,8 +29,17 @@ public class RpcRequest implements Serializable {
     private Class<?>[] paramTypes;
     private String version;
     private String group;
+    /**
+     * id of the proxy method, registered per connection after the handshake:
+     * the first call carries the full description, later calls only methodId and parameters
+     */
+    private Integer methodId;
 
     public String getRpcServiceName() {
         return this.getInterfaceName() + this.getGroup() + this.getVersion();
     }
+
+    public String getMethodKey() {
+        return this.getInterfaceName() + "." + this.getMethodName();
+    }
 }
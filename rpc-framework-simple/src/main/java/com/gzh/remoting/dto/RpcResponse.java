@@ -1,5 +1,6 @@
 package com.gzh.remoting.dto;
 
+import com.gzh.annotation.RpcCodec;
 import com.gzh.enums.RpcResponseCodeEnum;
 import lombok.*;
 
@@ -15,6 +16,7 @@ import java.io.Serializable;
 @Setter
 @Builder
 @ToString
+@RpcCodec
 public class RpcResponse<T> implements Serializable {
 
     private static final long serialVersionUID = 715745410605631233L;
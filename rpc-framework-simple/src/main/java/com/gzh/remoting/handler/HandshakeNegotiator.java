@@ -0,0 +1,132 @@
+package com.gzh.remoting.handler;
+
+import com.gzh.compress.Compress;
+import com.gzh.compress.dict.DictionaryRegistry;
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.CompressTypeEnum;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.enums.SerializationTypeEnum;
+import com.gzh.extension.ExtensionLoader;
+import com.gzh.factory.SingletonFactory;
+import com.gzh.remoting.dto.RpcHandshake;
+import com.gzh.serialize.Serializer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * 生成和应答握手：本端能加载哪些序列化器、压缩器，认识哪些共享字典
+ */
+@Slf4j
+public class HandshakeNegotiator {
+    // 本端实现的协议特性
+    private static final int FEATURES = RpcHandshake.FEATURE_BATCH;
+
+    private final DictionaryRegistry dictionaryRegistry = SingletonFactory.getInstance(DictionaryRegistry.class);
+    private final byte[] codecs;
+    private final byte[] compressors;
+
+    public HandshakeNegotiator() {
+        this.codecs = supportedCodecs();
+        this.compressors = supportedCompressors();
+    }
+
+    /**
+     * 客户端发出的握手
+     */
+    public RpcHandshake offer() {
+        return RpcHandshake.builder()
+                .codecs(codecs)
+                .compressors(compressors)
+                .dictionaryIds(dictionaryIds())
+                .features(FEATURES)
+                .build();
+    }
+
+    /**
+     * 服务端根据客户端的握手选定序列化方式：客户端偏好顺序中第一个本端也支持的，
+     * 其余双方都支持的序列化方式跟在后面，供自动选择序列化方式时使用
+     */
+    public RpcHandshake answer(RpcHandshake offer) {
+        ByteArrayOutputStream commonCodecs = new ByteArrayOutputStream();
+        for (byte c : nullToEmpty(offer.getCodecs())) {
+            if (contains(codecs, c)) {
+                commonCodecs.write(c);
+            }
+        }
+        if (commonCodecs.size() == 0) {
+            commonCodecs.write(SerializationTypeEnum.HESSIAN.getCode());
+        }
+        ByteArrayOutputStream common = new ByteArrayOutputStream();
+        for (byte c : nullToEmpty(offer.getCompressors())) {
+            if (contains(compressors, c)) {
+                common.write(c);
+            }
+        }
+        int[] offered = offer.getDictionaryIds() == null ? new int[0] : offer.getDictionaryIds();
+        Set<Integer> known = dictionaryRegistry.getIds();
+        int[] dictionaryIds = Arrays.stream(offered).filter(known::contains).toArray();
+        return RpcHandshake.builder()
+                .codecs(commonCodecs.toByteArray())
+                .compressors(common.toByteArray())
+                .dictionaryIds(dictionaryIds)
+                .features(offer.getFeatures() & FEATURES)
+                .build();
+    }
+
+    private int[] dictionaryIds() {
+        return dictionaryRegistry.getIds().stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * 本端能加载的序列化器，rpc.serialization 指定的排在最前
+     */
+    private static byte[] supportedCodecs() {
+        Byte preferred = SerializationTypeEnum.getCode(
+                RpcConfig.getString(RpcConfigEnum.SERIALIZATION, SerializationTypeEnum.HESSIAN2.getName()));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        if (preferred != null && loadable(Serializer.class, SerializationTypeEnum.getName(preferred))) {
+            result.write(preferred);
+        }
+        for (SerializationTypeEnum type : SerializationTypeEnum.values()) {
+            if ((preferred == null || type.getCode() != preferred) && loadable(Serializer.class, type.getName())) {
+                result.write(type.getCode());
+            }
+        }
+        return result.toByteArray();
+    }
+
+    private static byte[] supportedCompressors() {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        for (CompressTypeEnum type : CompressTypeEnum.values()) {
+            if (loadable(Compress.class, type.getName())) {
+                result.write(type.getCode());
+            }
+        }
+        return result.toByteArray();
+    }
+
+    private static boolean loadable(Class<?> type, String name) {
+        try {
+            return ExtensionLoader.getExtensionLoader(type).getExtension(name) != null;
+        } catch (RuntimeException | LinkageError e) {
+            log.warn("extension [{}] of [{}] is not available", name, type.getSimpleName());
+            return false;
+        }
+    }
+
+    private static boolean contains(byte[] array, byte value) {
+        for (byte b : array) {
+            if (b == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] nullToEmpty(byte[] array) {
+        return array == null ? new byte[0] : array;
+    }
+}
@@ -0,0 +1,37 @@
+package com.gzh.remoting.handler;
+
+import com.gzh.remoting.dto.RpcRequest;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * 解析好的服务实例和方法，按连接缓存后，后续调用不再需要拼接服务名和反射查找方法
+ */
+@AllArgsConstructor
+@Getter
+public class RpcInvoker {
+    private final Object service;
+    private final Method method;
+    /**
+     * the registering request, its description fields are copied into later compact requests
+     */
+    private final RpcRequest template;
+
+    public Object invoke(Object[] parameters) throws InvocationTargetException, IllegalAccessException {
+        return method.invoke(service, parameters);
+    }
+
+    /**
+     * 用注册时的方法描述补全只带 methodId 和参数的请求
+     */
+    public void fill(RpcRequest rpcRequest) {
+        rpcRequest.setInterfaceName(template.getInterfaceName());
+        rpcRequest.setMethodName(template.getMethodName());
+        rpcRequest.setParamTypes(template.getParamTypes());
+        rpcRequest.setGroup(template.getGroup());
+        rpcRequest.setVersion(template.getVersion());
+    }
+}
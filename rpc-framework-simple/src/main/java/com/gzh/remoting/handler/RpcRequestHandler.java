@@ -23,6 +23,25 @@ public class RpcRequestHandler {
         return invokeTargetMethod(rpcRequest,service);
     }
 
+    public Object handle(RpcInvoker invoker, RpcRequest rpcRequest) throws InvocationTargetException, IllegalAccessException {
+        return invoker.invoke(rpcRequest.getParameters());
+    }
+
+    //解析服务实例和方法，供按 methodId 调用时复用
+    public RpcInvoker resolve(RpcRequest rpcRequest) throws NoSuchMethodException {
+        Object service = serviceProvider.getService(rpcRequest.getRpcServiceName());
+        Method method = service.getClass().getMethod(rpcRequest.getMethodName(), rpcRequest.getParamTypes());
+        RpcRequest template = RpcRequest.builder()
+                .interfaceName(rpcRequest.getInterfaceName())
+                .methodName(rpcRequest.getMethodName())
+                .paramTypes(rpcRequest.getParamTypes())
+                .group(rpcRequest.getGroup())
+                .version(rpcRequest.getVersion())
+                .methodId(rpcRequest.getMethodId())
+                .build();
+        return new RpcInvoker(service, method, template);
+    }
+
     //调用方法
     private Object invokeTargetMethod(RpcRequest rpcRequest, Object service) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         Method method = service.getClass().getMethod(rpcRequest.getMethodName(), rpcRequest.getParamTypes());
@@ -6,4 +6,11 @@ import com.gzh.remoting.dto.RpcRequest;
 @SPI
 public interface RpcRequestTransport {
     Object sendRpsRequest(RpcRequest rpcRequest);
+
+    /**
+     * @param timeoutMillis 调用超时时间，不大于 0 时使用默认值；不支持超时的实现忽略该参数
+     */
+    default Object sendRpsRequest(RpcRequest rpcRequest, long timeoutMillis) {
+        return sendRpsRequest(rpcRequest);
+    }
 }
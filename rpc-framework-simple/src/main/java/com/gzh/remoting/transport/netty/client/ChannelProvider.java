@@ -1,35 +1,252 @@
 package com.gzh.remoting.transport.netty.client;
 
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.enums.RpcErrorMessageEnum;
+import com.gzh.exception.RpcException;
+import com.gzh.factory.SingletonFactory;
 import io.netty.channel.Channel;
+import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+/**
+ * 每个服务端地址一个连接池。
+ * <p>
+ * 连接数在 rpc.client.pool.min 和 rpc.client.pool.max 之间：首次使用时建立一个连接，之后的调用发现不足 min 个时补建，
+ * 选中的连接上未完成的请求数达到 rpc.client.pool.grow-pending 时再新建连接，直到 max 个。
+ * Bootstrap 每次连接都从 EventLoopGroup 中轮流取一个 EventLoop 注册，因此池中的连接分布在不同的 EventLoop 上。
+ * <p>
+ * 连接保存在写时复制的数组中，选择连接只读 volatile 数组不加锁；连接关闭时由 closeFuture 把它移出数组。
+ * <p>
+ * 建立连接是异步的：没有可用连接时，同一地址的并发调用共享同一个正在进行的连接 future，不会各自建连。
+ * 连接失败后按带随机抖动的指数退避（rpc.client.reconnect.base-ms 起，最多 rpc.client.reconnect.max-ms）
+ * 等待下一次尝试，退避期间的调用直接失败，不会堆积在不可用的地址上。
+ */
+@Slf4j
 public class ChannelProvider {
+    private static final int DEFAULT_MIN = 1;
+    private static final int DEFAULT_MAX = 4;
+    private static final int DEFAULT_GROW_PENDING = 16;
+    private static final String ROUND_ROBIN = "round-robin";
+    private static final int DEFAULT_RECONNECT_BASE_MS = 100;
+    private static final int DEFAULT_RECONNECT_MAX_MS = 10000;
 
-    private final Map<String, Channel> channelMap;
+    private final Map<String, ChannelPool> channelMap;
+    private final UnprocessedRequests unprocessedRequests;
+    private final int min;
+    private final int max;
+    private final int growPending;
+    private final boolean roundRobin;
+    private final long reconnectBaseNanos;
+    private final long reconnectMaxNanos;
 
     public ChannelProvider() {
         channelMap = new ConcurrentHashMap<>();
+        unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        min = Math.max(1, RpcConfig.getInt(RpcConfigEnum.CLIENT_POOL_MIN, DEFAULT_MIN));
+        max = Math.max(min, RpcConfig.getInt(RpcConfigEnum.CLIENT_POOL_MAX, DEFAULT_MAX));
+        growPending = Math.max(1, RpcConfig.getInt(RpcConfigEnum.CLIENT_POOL_GROW_PENDING, DEFAULT_GROW_PENDING));
+        roundRobin = ROUND_ROBIN.equalsIgnoreCase(RpcConfig.getString(RpcConfigEnum.CLIENT_POOL_SELECT, "least-pending"));
+        reconnectBaseNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(1, RpcConfig.getInt(RpcConfigEnum.CLIENT_RECONNECT_BASE, DEFAULT_RECONNECT_BASE_MS)));
+        reconnectMaxNanos = Math.max(reconnectBaseNanos, TimeUnit.MILLISECONDS.toNanos(
+                RpcConfig.getInt(RpcConfigEnum.CLIENT_RECONNECT_MAX, DEFAULT_RECONNECT_MAX_MS)));
     }
 
-    //获取channel
-    public Channel get(InetSocketAddress inetSocketAddress) {
+    /**
+     * 获取一个可用的 channel，没有可用连接时用 connector 建立，调用线程不会阻塞
+     *
+     * @param connector 异步建立连接（含握手）
+     */
+    public CompletableFuture<Channel> get(InetSocketAddress inetSocketAddress,
+                                          Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
         String key = inetSocketAddress.toString();
-        if (channelMap.containsKey(key)) {
-            Channel channel = channelMap.get(key);
-            //如果channel状态正常
-            if (channel != null && channel.isActive()) {
-                return channel;
-            }
-            channelMap.remove(key);
+        ChannelPool pool = channelMap.computeIfAbsent(key, k -> new ChannelPool());
+        Channel channel = pool.select();
+        if (channel == null) {
+            // 没有可用连接，等待（共享的）新建连接
+            return pool.connect(inetSocketAddress, connector);
+        }
+        int size = pool.channels.length;
+        if (size < min || size < max && unprocessedRequests.pending(channel) >= growPending) {
+            // 后台新建，本次仍使用现有连接
+            pool.tryGrow(inetSocketAddress, connector);
         }
-        return null;
+        return CompletableFuture.completedFuture(channel);
     }
-    //添加通道
-    public void set(InetSocketAddress inetSocketAddress,Channel channel) {
-        String key = inetSocketAddress.toString();
-        channelMap.put(key,channel);
+
+    /**
+     * 第 failures 次连续失败后的等待时间：指数增长，取其一半加上随机的另一半，避免大量客户端同时重连
+     */
+    private long backoffNanos(int failures) {
+        long delay = reconnectBaseNanos << Math.min(failures - 1, 30);
+        if (delay <= 0 || delay > reconnectMaxNanos) {
+            delay = reconnectMaxNanos;
+        }
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private final class ChannelPool {
+        private volatile Channel[] channels = new Channel[0];
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicBoolean growing = new AtomicBoolean();
+        // 保护 connecting 和退避状态，与修改 channels 的锁分开
+        private final Object connectLock = new Object();
+        private CompletableFuture<Channel> connecting;
+        private int failures;
+        private long retryAtNanos;
+        // 后台扩容自己的退避状态，只在 growing 为 true 时读写，不影响共享的建连
+        private int growFailures;
+        private long growRetryAtNanos;
+
+        Channel select() {
+            Channel[] current = channels;
+            if (current.length == 0) {
+                return null;
+            }
+            if (roundRobin) {
+                int start = next.getAndIncrement() & Integer.MAX_VALUE;
+                for (int i = 0; i < current.length; i++) {
+                    Channel channel = current[(start + i) % current.length];
+                    if (channel.isActive()) {
+                        return channel;
+                    }
+                }
+                return null;
+            }
+            // 可写的连接优先，其次未完成的请求最少
+            Channel best = null;
+            int bestPending = Integer.MAX_VALUE;
+            boolean bestWritable = false;
+            for (Channel channel : current) {
+                if (!channel.isActive()) {
+                    continue;
+                }
+                boolean writable = channel.isWritable();
+                int pending = unprocessedRequests.pending(channel);
+                if (best == null || writable && !bestWritable || writable == bestWritable && pending < bestPending) {
+                    best = channel;
+                    bestPending = pending;
+                    bestWritable = writable;
+                }
+            }
+            return best;
+        }
+
+        CompletableFuture<Channel> connect(InetSocketAddress inetSocketAddress,
+                                           Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+            synchronized (connectLock) {
+                Channel channel = select();
+                if (channel != null) {
+                    return CompletableFuture.completedFuture(channel);
+                }
+                if (connecting != null) {
+                    return connecting;
+                }
+                if (failures > 0 && System.nanoTime() - retryAtNanos < 0) {
+                    CompletableFuture<Channel> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE,
+                            inetSocketAddress + " is backing off after " + failures + " failed attempts"));
+                    return failed;
+                }
+                CompletableFuture<Channel> future = newConnection(inetSocketAddress, connector, true);
+                // 连接可能已经同步失败并清理过了
+                if (!future.isDone()) {
+                    connecting = future;
+                }
+                return future;
+            }
+        }
+
+        void tryGrow(InetSocketAddress inetSocketAddress, Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+            if (!growing.compareAndSet(false, true)) {
+                return;
+            }
+            if (growFailures > 0 && System.nanoTime() - growRetryAtNanos < 0) {
+                growing.set(false);
+                return;
+            }
+            newConnection(inetSocketAddress, connector, false).whenComplete((channel, e) -> {
+                if (e == null) {
+                    growFailures = 0;
+                } else {
+                    log.warn("failed to open another channel to [{}]", inetSocketAddress, e);
+                    growFailures++;
+                    growRetryAtNanos = System.nanoTime() + backoffNanos(growFailures);
+                }
+                growing.set(false);
+            });
+        }
+
+        /**
+         * @param shared 是否是等待者共享的建连（{@link #connect}）；只有它维护 connecting 和共享的退避状态
+         */
+        private CompletableFuture<Channel> newConnection(InetSocketAddress inetSocketAddress,
+                                                         Function<InetSocketAddress, CompletableFuture<Channel>> connector,
+                                                         boolean shared) {
+            CompletableFuture<Channel> future;
+            try {
+                future = connector.apply(inetSocketAddress);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            // 先登记连接和退避状态，再通知等待者
+            CompletableFuture<Channel> result = new CompletableFuture<>();
+            future.whenComplete((channel, e) -> {
+                if (shared) {
+                    synchronized (connectLock) {
+                        // 只清除自己登记的建连
+                        if (connecting == result) {
+                            connecting = null;
+                        }
+                        if (e == null) {
+                            failures = 0;
+                        } else {
+                            failures++;
+                            retryAtNanos = System.nanoTime() + backoffNanos(failures);
+                        }
+                    }
+                }
+                if (e == null) {
+                    add(channel);
+                    result.complete(channel);
+                } else {
+                    result.completeExceptionally(e);
+                }
+            });
+            return result;
+        }
+
+        private synchronized Channel add(Channel channel) {
+            Channel[] current = channels;
+            Channel[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = channel;
+            channels = updated;
+            channel.closeFuture().addListener(future -> remove(channel));
+            return channel;
+        }
+
+        private synchronized void remove(Channel channel) {
+            Channel[] current = channels;
+            int index = Arrays.asList(current).indexOf(channel);
+            if (index < 0) {
+                return;
+            }
+            Channel[] updated = new Channel[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            channels = updated;
+        }
     }
 }
@@ -0,0 +1,297 @@
+package com.gzh.remoting.transport.netty.client;
+
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.enums.RpcErrorMessageEnum;
+import com.gzh.exception.RpcException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按服务端地址自适应调整并发上限（rpc.client.adaptive-limit=true 时启用），思路同 TCP Vegas / gradient 限流：
+ * <p>
+ * 每个调用结束时用它的 RTT 更新平滑 RTT，与观测到的最小 RTT 比较：
+ * gradient = clamp(rtt-tolerance * 最小RTT / 平滑RTT, 0.5, 1)，新上限 = 上限 * gradient + sqrt(上限)，再与旧上限加权平均。
+ * RTT 没有变长时上限按 sqrt(上限) 增长，服务端开始排队、RTT 变长时上限收缩；调用超时视为丢包，上限乘以 0.9。
+ * 未完成的调用不到上限一半时不增长，避免空闲时上限虚高。最小 RTT 取最近两个窗口内的最小值，服务端整体变慢后能重新确定基准。
+ * <p>
+ * 超出上限的调用按 rpc.client.adaptive-limit.policy 处理：shed（默认）立即失败，
+ * queue 在该地址上排队，队列长度和最长等待时间与全局背压共用 rpc.client.overload.queue-size / wait-ms。
+ * <p>
+ * {@link #getLimits()} 返回各地址当前的上限，上限持续远低于 max 说明该服务端已经饱和。
+ */
+@Slf4j
+public class ConcurrencyLimiter {
+    private static final Permit UNLIMITED = new Permit(null, 0);
+    private static final CompletableFuture<Permit> UNLIMITED_FUTURE = CompletableFuture.completedFuture(UNLIMITED);
+    private static final int DEFAULT_INITIAL = 20;
+    private static final int DEFAULT_MIN = 2;
+    private static final int DEFAULT_MAX = 1000;
+    private static final double DEFAULT_RTT_TOLERANCE = 1.5;
+    private static final long DEFAULT_WAIT_MS = 1000;
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+    // 新上限的权重
+    private static final double SMOOTHING = 0.2;
+    // 超时后上限的缩小比例
+    private static final double BACKOFF_RATIO = 0.9;
+    // 每个窗口的样本数，最小 RTT 取最近两个窗口的最小值
+    private static final int MIN_RTT_WINDOW = 500;
+    // 同一地址最多每秒记录一次饱和日志
+    private static final long SATURATED_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final boolean queue;
+    private final long waitMillis;
+    private final int queueSize;
+    private final Map<InetSocketAddress, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimiter() {
+        this.enabled = RpcConfig.getBoolean(RpcConfigEnum.CLIENT_ADAPTIVE_LIMIT, false);
+        this.maxLimit = Math.max(1, RpcConfig.getInt(RpcConfigEnum.CLIENT_ADAPTIVE_LIMIT_MAX, DEFAULT_MAX));
+        this.minLimit = Math.min(maxLimit, Math.max(1, RpcConfig.getInt(RpcConfigEnum.CLIENT_ADAPTIVE_LIMIT_MIN, DEFAULT_MIN)));
+        this.initialLimit = Math.min(maxLimit, Math.max(minLimit,
+                RpcConfig.getInt(RpcConfigEnum.CLIENT_ADAPTIVE_LIMIT_INITIAL, DEFAULT_INITIAL)));
+        this.rttTolerance = Math.max(1.0,
+                RpcConfig.getDouble(RpcConfigEnum.CLIENT_ADAPTIVE_LIMIT_RTT_TOLERANCE, DEFAULT_RTT_TOLERANCE));
+        this.queue = "queue".equalsIgnoreCase(RpcConfig.getString(RpcConfigEnum.CLIENT_ADAPTIVE_LIMIT_POLICY, "shed"));
+        this.waitMillis = Math.max(0, RpcConfig.getLong(RpcConfigEnum.CLIENT_OVERLOAD_WAIT, DEFAULT_WAIT_MS));
+        this.queueSize = Math.max(0, RpcConfig.getInt(RpcConfigEnum.CLIENT_OVERLOAD_QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 申请向该地址发出一个调用；调用结束后必须调用 permit 的 {@link Permit#success()}、{@link Permit#dropped()}
+     * 或 {@link Permit#ignore()} 之一
+     */
+    public CompletableFuture<Permit> acquire(InetSocketAddress address) {
+        if (!enabled) {
+            return UNLIMITED_FUTURE;
+        }
+        Endpoint endpoint = endpoints.computeIfAbsent(address, Endpoint::new);
+        // 有排队者时新调用不插队
+        if (endpoint.waiterCount.get() == 0) {
+            Permit permit = endpoint.tryAcquire();
+            if (permit != null) {
+                return CompletableFuture.completedFuture(permit);
+            }
+        }
+        return queue ? endpoint.enqueue() : endpoint.shed();
+    }
+
+    /**
+     * 该地址当前的并发上限，尚未调用过的地址返回 -1
+     */
+    public int getLimit(InetSocketAddress address) {
+        Endpoint endpoint = endpoints.get(address);
+        return endpoint == null ? -1 : (int) endpoint.limit;
+    }
+
+    /**
+     * 该地址上未完成的调用数
+     */
+    public int getInflight(InetSocketAddress address) {
+        Endpoint endpoint = endpoints.get(address);
+        return endpoint == null ? 0 : endpoint.inflight.get();
+    }
+
+    /**
+     * 各地址当前的并发上限
+     */
+    public Map<InetSocketAddress, Integer> getLimits() {
+        Map<InetSocketAddress, Integer> limits = new HashMap<>();
+        endpoints.forEach((address, endpoint) -> limits.put(address, (int) endpoint.limit));
+        return Collections.unmodifiableMap(limits);
+    }
+
+    /**
+     * 一个调用占用的并发名额，只能结束一次
+     */
+    public static final class Permit {
+        private final Endpoint endpoint;
+        // 发出时该地址上未完成的调用数（含本次）
+        private final int inflight;
+        private final long startNanos;
+
+        private Permit(Endpoint endpoint, int inflight) {
+            this.endpoint = endpoint;
+            this.inflight = inflight;
+            this.startNanos = endpoint == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * 收到响应，用本次 RTT 调整上限
+         */
+        public void success() {
+            if (endpoint != null) {
+                endpoint.onSample(System.nanoTime() - startNanos, inflight);
+                endpoint.release();
+            }
+        }
+
+        /**
+         * 调用超时，缩小上限
+         */
+        public void dropped() {
+            if (endpoint != null) {
+                endpoint.onDropped();
+                endpoint.release();
+            }
+        }
+
+        /**
+         * 调用因与服务端负载无关的原因失败（例如连接失败），不调整上限
+         */
+        public void ignore() {
+            if (endpoint != null) {
+                endpoint.release();
+            }
+        }
+    }
+
+    private final class Endpoint {
+        private final InetSocketAddress address;
+        private final AtomicInteger inflight = new AtomicInteger();
+        private final Queue<CompletableFuture<Permit>> waiters = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger waiterCount = new AtomicInteger();
+        private volatile double limit = initialLimit;
+        private volatile long lastSaturatedLogNanos;
+        // 以下由 synchronized 保护
+        private double smoothedRttNanos;
+        private long windowMinRttNanos = Long.MAX_VALUE;
+        private long previousMinRttNanos = Long.MAX_VALUE;
+        private int windowSamples;
+
+        Endpoint(InetSocketAddress address) {
+            this.address = address;
+            this.lastSaturatedLogNanos = System.nanoTime() - SATURATED_LOG_INTERVAL_NANOS;
+        }
+
+        Permit tryAcquire() {
+            for (;;) {
+                int current = inflight.get();
+                if (current >= (int) limit) {
+                    return null;
+                }
+                if (inflight.compareAndSet(current, current + 1)) {
+                    return new Permit(this, current + 1);
+                }
+            }
+        }
+
+        void release() {
+            inflight.decrementAndGet();
+            drain();
+        }
+
+        synchronized void onSample(long rttNanos, int inflightAtStart) {
+            if (rttNanos <= 0) {
+                return;
+            }
+            if (rttNanos < windowMinRttNanos) {
+                windowMinRttNanos = rttNanos;
+            }
+            if (++windowSamples >= MIN_RTT_WINDOW) {
+                previousMinRttNanos = windowMinRttNanos;
+                windowMinRttNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+            long minRttNanos = Math.min(windowMinRttNanos, previousMinRttNanos);
+            smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : smoothedRttNanos + (rttNanos - smoothedRttNanos) / 8;
+
+            double current = limit;
+            double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * minRttNanos / smoothedRttNanos));
+            if (gradient >= 1.0 && inflightAtStart < current / 2) {
+                // 调用方没有用满上限，RTT 说明不了服务端还能承受更多
+                return;
+            }
+            double target = current * gradient + Math.sqrt(current);
+            updateLimit(current * (1 - SMOOTHING) + target * SMOOTHING);
+        }
+
+        synchronized void onDropped() {
+            updateLimit(limit * BACKOFF_RATIO);
+        }
+
+        private void updateLimit(double newLimit) {
+            double old = limit;
+            limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            if ((int) limit != (int) old) {
+                log.debug("concurrency limit of [{}] changed from [{}] to [{}]", address, (int) old, (int) limit);
+            }
+        }
+
+        CompletableFuture<Permit> shed() {
+            logSaturated();
+            CompletableFuture<Permit> future = new CompletableFuture<>();
+            future.completeExceptionally(limitExceeded());
+            return future;
+        }
+
+        CompletableFuture<Permit> enqueue() {
+            if (waiterCount.incrementAndGet() > queueSize) {
+                waiterCount.decrementAndGet();
+                return shed();
+            }
+            logSaturated();
+            CompletableFuture<Permit> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            UnprocessedRequests.TIMER.newTimeout(t -> {
+                // 只有仍在队列中（没有被放行）的才算超时
+                if (waiters.remove(waiter)) {
+                    waiterCount.decrementAndGet();
+                    waiter.completeExceptionally(limitExceeded());
+                }
+            }, waitMillis, TimeUnit.MILLISECONDS);
+            // 入队前刚好有调用结束
+            drain();
+            return waiter;
+        }
+
+        private void drain() {
+            while (waiterCount.get() > 0) {
+                Permit permit = tryAcquire();
+                if (permit == null) {
+                    return;
+                }
+                CompletableFuture<Permit> waiter = waiters.poll();
+                if (waiter == null) {
+                    // 被别的线程放行或已超时
+                    inflight.decrementAndGet();
+                    return;
+                }
+                waiterCount.decrementAndGet();
+                waiter.complete(permit);
+            }
+        }
+
+        private RpcException limitExceeded() {
+            return new RpcException(RpcErrorMessageEnum.CONCURRENCY_LIMIT_EXCEEDED,
+                    address + " limit " + (int) limit + ", inflight " + inflight.get());
+        }
+
+        private void logSaturated() {
+            long now = System.nanoTime();
+            if (now - lastSaturatedLogNanos >= SATURATED_LOG_INTERVAL_NANOS) {
+                lastSaturatedLogNanos = now;
+                log.warn("[{}] is saturated: concurrency limit [{}], inflight [{}]", address, (int) limit, inflight.get());
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.gzh.remoting.transport.netty.client;
+
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.enums.RpcErrorMessageEnum;
+import com.gzh.exception.RpcException;
+import com.gzh.factory.SingletonFactory;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 客户端背压：限制未完成的调用数和尚未写入 socket 的字节数，服务端变慢时调用变慢或被拒绝，而不是让客户端内存无限增长。
+ * <p>
+ * 全局：未完成的调用最多 rpc.client.max-inflight 个，所有连接待写出的字节合计最多 rpc.client.max-pending-bytes。
+ * 超过时按 rpc.client.overload-policy 处理：
+ * <ul>
+ *     <li>fail-fast：立即失败</li>
+ *     <li>wait（默认）：阻塞调用线程，最多 rpc.client.overload.wait-ms</li>
+ *     <li>queue：不阻塞调用线程，进入最多 rpc.client.overload.queue-size 个的等待队列，最多等待 rpc.client.overload.wait-ms</li>
+ * </ul>
+ * 等待的时间不计入调用本身的超时。Netty 线程（例如在回调里发起调用）不能阻塞，wait 在这些线程上按 queue 处理。
+ * <p>
+ * 每个连接：已发出未响应的调用最多 rpc.client.max-inflight-per-connection 个，待写出的字节由 Netty 的高低水位
+ * （rpc.client.write-buffer.high / low）控制。连接不可写或达到上限时，请求在该连接的 EventLoop 上排队，
+ * 连接恢复可写、收到响应或有调用超时、被取消时按顺序发出；排队期间调用的超时照常计算。
+ */
+@Slf4j
+public class FlowController {
+    private static final AttributeKey<DeferredQueue> DEFERRED = AttributeKey.valueOf("flowDeferred");
+    private static final CompletableFuture<Void> ACQUIRED = CompletableFuture.completedFuture(null);
+    private static final int DEFAULT_MAX_INFLIGHT = 10000;
+    private static final int DEFAULT_MAX_INFLIGHT_PER_CONNECTION = 1000;
+    private static final long DEFAULT_MAX_PENDING_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_WAIT_MS = 1000;
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private final UnprocessedRequests unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+    private final int maxInflight;
+    private final int maxInflightPerConnection;
+    private final long maxPendingBytes;
+    private final OverloadPolicy policy;
+    private final long waitMillis;
+    private final int queueSize;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    // queue 策略的等待者
+    private final Queue<CompletableFuture<Void>> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiterCount = new AtomicInteger();
+    // wait 策略的等待者，只有存在阻塞的线程时释放才需要加锁通知
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final AtomicInteger blocked = new AtomicInteger();
+
+    public FlowController() {
+        this.maxInflight = RpcConfig.getInt(RpcConfigEnum.CLIENT_MAX_INFLIGHT, DEFAULT_MAX_INFLIGHT);
+        this.maxInflightPerConnection = RpcConfig.getInt(RpcConfigEnum.CLIENT_MAX_INFLIGHT_PER_CONNECTION,
+                DEFAULT_MAX_INFLIGHT_PER_CONNECTION);
+        this.maxPendingBytes = RpcConfig.getLong(RpcConfigEnum.CLIENT_MAX_PENDING_BYTES, DEFAULT_MAX_PENDING_BYTES);
+        this.policy = OverloadPolicy.of(RpcConfig.getString(RpcConfigEnum.CLIENT_OVERLOAD_POLICY, "wait"));
+        this.waitMillis = Math.max(0, RpcConfig.getLong(RpcConfigEnum.CLIENT_OVERLOAD_WAIT, DEFAULT_WAIT_MS));
+        this.queueSize = Math.max(0, RpcConfig.getInt(RpcConfigEnum.CLIENT_OVERLOAD_QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+    }
+
+    /**
+     * 申请发出一个调用，future 完成后才能发送；调用结束后必须 {@link #release()}
+     */
+    public CompletableFuture<Void> acquire() {
+        // 有排队者时新调用不插队
+        if (waiterCount.get() == 0 && tryAcquire()) {
+            return ACQUIRED;
+        }
+        if (policy == OverloadPolicy.FAIL_FAST) {
+            return overloaded();
+        }
+        if (policy == OverloadPolicy.WAIT && !(Thread.currentThread() instanceof FastThreadLocalThread)) {
+            return await();
+        }
+        return enqueue();
+    }
+
+    public void release() {
+        inflight.decrementAndGet();
+        onAvailable();
+    }
+
+    /**
+     * 由 {@link PendingBytesHandler} 在字节进入和离开出站缓冲区时调用
+     */
+    void addPendingBytes(long delta) {
+        long bytes = pendingBytes.addAndGet(delta);
+        if (delta < 0 && maxPendingBytes > 0 && bytes < maxPendingBytes && bytes - delta >= maxPendingBytes) {
+            onAvailable();
+        }
+    }
+
+    /**
+     * 在连接的 EventLoop 上调用：连接可以继续发送时立即执行 write，否则排在该连接的队列里。
+     * 调用前请求已登记到 {@link UnprocessedRequests}
+     */
+    void send(Channel channel, CompletableFuture<?> future, Runnable write) {
+        DeferredQueue deferred = channel.attr(DEFERRED).get();
+        if (deferred != null) {
+            deferred.dropCompleted();
+        }
+        int queued = deferred == null ? 0 : deferred.live;
+        if (queued == 0 && canSend(channel, 1)) {
+            write.run();
+            return;
+        }
+        if (deferred == null) {
+            deferred = new DeferredQueue();
+            channel.attr(DEFERRED).set(deferred);
+        }
+        Deferred entry = new Deferred(future, write);
+        deferred.add(entry);
+        DeferredQueue queue = deferred;
+        // 排队期间超时、被取消或连接断开的请求不再算作待发送
+        future.whenComplete((r, e) -> {
+            if (channel.eventLoop().inEventLoop()) {
+                queue.settle(entry);
+            } else {
+                channel.eventLoop().execute(() -> queue.settle(entry));
+            }
+        });
+    }
+
+    /**
+     * 在连接的 EventLoop 上调用：连接恢复可写、收到响应或有调用超时、被取消后，按顺序发出排队的请求
+     */
+    void resume(Channel channel) {
+        DeferredQueue deferred = channel.attr(DEFERRED).get();
+        if (deferred == null) {
+            return;
+        }
+        while (!deferred.queue.isEmpty()) {
+            Deferred head = deferred.queue.peek();
+            if (head.future.isDone()) {
+                // 排队期间已超时或连接已断开
+                deferred.settle(deferred.queue.poll());
+                continue;
+            }
+            if (!canSend(channel, deferred.live)) {
+                return;
+            }
+            deferred.settle(deferred.queue.poll());
+            try {
+                head.write.run();
+            } catch (RuntimeException e) {
+                head.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @param unsent 已登记但还没有发出的请求数（含本次）
+     */
+    private boolean canSend(Channel channel, int unsent) {
+        return channel.isWritable() && (maxInflightPerConnection <= 0
+                || unprocessedRequests.pending(channel) - unsent < maxInflightPerConnection);
+    }
+
+    private boolean tryAcquire() {
+        if (maxPendingBytes > 0 && pendingBytes.get() >= maxPendingBytes) {
+            return false;
+        }
+        if (maxInflight <= 0) {
+            inflight.incrementAndGet();
+            return true;
+        }
+        for (;;) {
+            int current = inflight.get();
+            if (current >= maxInflight) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private CompletableFuture<Void> await() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        blocked.incrementAndGet();
+        lock.lock();
+        try {
+            while (!tryAcquire()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return overloaded();
+                }
+                available.awaitNanos(remaining);
+            }
+            return ACQUIRED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return overloaded();
+        } finally {
+            lock.unlock();
+            blocked.decrementAndGet();
+        }
+    }
+
+    private CompletableFuture<Void> enqueue() {
+        if (waiterCount.incrementAndGet() > queueSize) {
+            waiterCount.decrementAndGet();
+            return overloaded();
+        }
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+        UnprocessedRequests.TIMER.newTimeout(t -> {
+            // 只有仍在队列中（没有被放行）的才算超时
+            if (waiters.remove(waiter)) {
+                waiterCount.decrementAndGet();
+                waiter.completeExceptionally(overloadedException());
+            }
+        }, waitMillis, TimeUnit.MILLISECONDS);
+        // 入队前刚好有调用结束
+        onAvailable();
+        return waiter;
+    }
+
+    private void onAvailable() {
+        if (blocked.get() > 0) {
+            lock.lock();
+            try {
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+        while (waiterCount.get() > 0 && tryAcquire()) {
+            CompletableFuture<Void> waiter = waiters.poll();
+            if (waiter == null) {
+                // 被别的线程放行或已超时
+                inflight.decrementAndGet();
+                return;
+            }
+            waiterCount.decrementAndGet();
+            waiter.complete(null);
+        }
+    }
+
+    private CompletableFuture<Void> overloaded() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(overloadedException());
+        return future;
+    }
+
+    private RpcException overloadedException() {
+        return new RpcException(RpcErrorMessageEnum.CLIENT_OVERLOADED,
+                "inflight " + inflight.get() + ", pending bytes " + pendingBytes.get());
+    }
+
+    private enum OverloadPolicy {
+        FAIL_FAST, WAIT, QUEUE;
+
+        static OverloadPolicy of(String name) {
+            try {
+                return valueOf(name.trim().replace('-', '_').toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("unknown overload policy [{}], use wait", name);
+                return WAIT;
+            }
+        }
+    }
+
+    /**
+     * 连接上排队的请求，只在连接的 EventLoop 上访问。
+     * 排队期间完成的请求要等到排到队首才移除，因此队列长度不等于待发送的请求数，另外用 live 计数
+     */
+    private static final class DeferredQueue {
+        private final ArrayDeque<Deferred> queue = new ArrayDeque<>();
+        // 还在等待发送的请求数
+        private int live;
+
+        void add(Deferred deferred) {
+            queue.add(deferred);
+            live++;
+        }
+
+        /**
+         * 请求已发出或已完成，不再等待发送；每个请求只计一次
+         */
+        void settle(Deferred deferred) {
+            if (!deferred.settled) {
+                deferred.settled = true;
+                live--;
+            }
+        }
+
+        void dropCompleted() {
+            while (!queue.isEmpty() && queue.peek().future.isDone()) {
+                settle(queue.poll());
+            }
+        }
+    }
+
+    private static final class Deferred {
+        private final CompletableFuture<?> future;
+        private final Runnable write;
+        private boolean settled;
+
+        Deferred(CompletableFuture<?> future, Runnable write) {
+            this.future = future;
+            this.write = write;
+        }
+    }
+}
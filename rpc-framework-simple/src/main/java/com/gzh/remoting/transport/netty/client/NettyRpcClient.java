@@ -1,16 +1,24 @@
 package com.gzh.remoting.transport.netty.client;
 
+import com.gzh.compress.CompressPolicy;
+import com.gzh.config.RpcConfig;
 import com.gzh.enums.CompressTypeEnum;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.enums.RpcErrorMessageEnum;
 import com.gzh.enums.SerializationTypeEnum;
 import com.gzh.enums.ServiceDiscoveryEnum;
+import com.gzh.exception.RpcException;
 import com.gzh.extension.ExtensionLoader;
 import com.gzh.factory.SingletonFactory;
 import com.gzh.registry.ServiceDiscovery;
 import com.gzh.remoting.constants.RpcConstants;
+import com.gzh.remoting.dto.RpcHandshake;
 import com.gzh.remoting.dto.RpcMessage;
 import com.gzh.remoting.dto.RpcRequest;
 import com.gzh.remoting.dto.RpcResponse;
+import com.gzh.remoting.handler.HandshakeNegotiator;
 import com.gzh.remoting.transport.RpcRequestTransport;
+import com.gzh.remoting.transport.netty.codec.ChannelSession;
 import com.gzh.remoting.transport.netty.codec.RpcMessageDecoder;
 import com.gzh.remoting.transport.netty.codec.RpcMessageEncoder;
 import io.netty.bootstrap.Bootstrap;
@@ -18,36 +26,67 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
-import lombok.SneakyThrows;
+import io.netty.util.concurrent.ScheduledFuture;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
 public class NettyRpcClient implements RpcRequestTransport {
+    private static final int DEFAULT_HANDSHAKE_TIMEOUT_MS = 3000;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_WRITE_BUFFER_HIGH = 64 * 1024;
+    private static final int DEFAULT_WRITE_BUFFER_LOW = 32 * 1024;
     private final ServiceDiscovery serviceDiscovery;
     private final UnprocessedRequests unprocessedRequests;
     private final ChannelProvider channelProvider;
+    private final CompressPolicy compressPolicy;
+    private final byte protocolVersion;
+    private final HandshakeNegotiator handshakeNegotiator;
+    private final RequestBatcher requestBatcher;
+    private final FlowController flowController;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final int handshakeTimeoutMs;
     private final Bootstrap bootstrap;
     private final EventLoopGroup eventLoopGroup;
 
     public NettyRpcClient() {//初始化
+        int flushConsolidation = RpcConfig.getInt(RpcConfigEnum.FLUSH_CONSOLIDATION,
+                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES);
+        int writeBufferHigh = Math.max(1, RpcConfig.getInt(RpcConfigEnum.CLIENT_WRITE_BUFFER_HIGH, DEFAULT_WRITE_BUFFER_HIGH));
+        int writeBufferLow = Math.min(writeBufferHigh,
+                Math.max(0, RpcConfig.getInt(RpcConfigEnum.CLIENT_WRITE_BUFFER_LOW, DEFAULT_WRITE_BUFFER_LOW)));
+        PendingBytesHandler pendingBytesHandler = new PendingBytesHandler();
         eventLoopGroup = new NioEventLoopGroup();
         bootstrap = new Bootstrap();
         bootstrap.group(eventLoopGroup)
                 .channel(NioSocketChannel.class)
                 .handler(new LoggingHandler(LogLevel.INFO))
-                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS,5000)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS,
+                        RpcConfig.getInt(RpcConfigEnum.CLIENT_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT_MS))
+                // 小请求不等待 Nagle 合包，写合并交给 FlushConsolidationHandler
+                .option(ChannelOption.TCP_NODELAY,true)
+                // 出站缓冲区超过高水位后连接不可写，请求在连接上排队而不是继续堆积
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(writeBufferLow, writeBufferHigh))
                 .handler(new ChannelInitializer<SocketChannel>() {
 
                     @Override
                     protected void initChannel(SocketChannel ch) throws Exception {
                         ChannelPipeline p = ch.pipeline();
+                        if (flushConsolidation > 0) {
+                            // 放在最前面，拦截所有 handler 的 flush
+                            p.addLast(new FlushConsolidationHandler(flushConsolidation, true));
+                        }
+                        p.addLast(pendingBytesHandler);
                         p.addLast(new IdleStateHandler(0,5,0, TimeUnit.SECONDS));
                         p.addLast(new RpcMessageEncoder());
                         p.addLast(new RpcMessageDecoder());
@@ -57,58 +96,230 @@ public class NettyRpcClient implements RpcRequestTransport {
         this.serviceDiscovery = ExtensionLoader.getExtensionLoader(ServiceDiscovery.class).getExtension(ServiceDiscoveryEnum.ZK.getName());
         this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
         this.channelProvider = SingletonFactory.getInstance(ChannelProvider.class);
+        this.compressPolicy = SingletonFactory.getInstance(CompressPolicy.class);
+        this.protocolVersion = resolveProtocolVersion();
+        this.handshakeNegotiator = SingletonFactory.getInstance(HandshakeNegotiator.class);
+        this.requestBatcher = SingletonFactory.getInstance(RequestBatcher.class);
+        this.flowController = SingletonFactory.getInstance(FlowController.class);
+        this.concurrencyLimiter = SingletonFactory.getInstance(ConcurrencyLimiter.class);
+        this.handshakeTimeoutMs = RpcConfig.getInt(RpcConfigEnum.HANDSHAKE_TIMEOUT, DEFAULT_HANDSHAKE_TIMEOUT_MS);
     }
 
-    @SneakyThrows
-    public Channel doConnect(InetSocketAddress inetSocketAddress) {//连接获取channel
+    private static byte resolveProtocolVersion() {
+        int version = RpcConfig.getInt(RpcConfigEnum.PROTOCOL_VERSION, RpcConstants.VERSION);
+        if (version < Byte.MIN_VALUE || version > Byte.MAX_VALUE || !RpcConstants.isSupportedVersion((byte) version)) {
+            log.warn("unsupported protocol version [{}], use [{}]", version, RpcConstants.VERSION);
+            return RpcConstants.VERSION;
+        }
+        return (byte) version;
+    }
+
+    /**
+     * 异步建立连接并握手，不阻塞调用线程；连接失败或超时（rpc.client.connect-timeout-ms）时 future 异常完成
+     */
+    public CompletableFuture<Channel> doConnect(InetSocketAddress inetSocketAddress) {//连接获取channel
         CompletableFuture<Channel> completableFuture = new CompletableFuture<>();
         bootstrap.connect(inetSocketAddress).addListener((ChannelFutureListener) future -> {
             if (future.isSuccess()) {
                 log.info("The client has connected [{}] successful!", inetSocketAddress.toString());
-                completableFuture.complete(future.channel());
+                handshake(future.channel(), completableFuture);
             } else {
-                throw new IllegalStateException();
+                completableFuture.completeExceptionally(new RpcException(
+                        RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE.getMessage() + ":" + inetSocketAddress, future.cause()));
+            }
+        });
+        return completableFuture;
+    }
+
+    /**
+     * v2 连接建立后先握手，协商序列化方式、压缩方式和字典；超时则按默认方式继续使用该连接
+     */
+    private void handshake(Channel channel, CompletableFuture<Channel> connected) {
+        // 握手完成前连接就断开了
+        channel.closeFuture().addListener(future -> connected.completeExceptionally(new RpcException(
+                RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE, "channel closed during handshake")));
+        if (protocolVersion == RpcConstants.VERSION_1) {
+            connected.complete(channel);
+            return;
+        }
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .version(protocolVersion)
+                .codec(SerializationTypeEnum.HESSIAN.getCode())
+                .compress(CompressTypeEnum.NONE.getCode())
+                .messageType(RpcConstants.HANDSHAKE_REQUEST_TYPE)
+                .data(handshakeNegotiator.offer()).build();
+        channel.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        CompletableFuture<RpcHandshake> handshake = ChannelSession.get(channel).getHandshake();
+        ScheduledFuture<?> timeout = channel.eventLoop().schedule(() -> {
+            if (!handshake.isDone()) {
+                log.warn("handshake with [{}] failed, use default codec and compress", channel.remoteAddress());
+                connected.complete(channel);
             }
+        }, handshakeTimeoutMs, TimeUnit.MILLISECONDS);
+        handshake.whenComplete((agreed, e) -> {
+            timeout.cancel(false);
+            connected.complete(channel);
         });
-        return completableFuture.get();
     }
 
 
     @Override
     public Object sendRpsRequest(RpcRequest rpcRequest) {//发送请求
+        return sendRpsRequest(rpcRequest, 0);
+    }
+
+    @Override
+    public Object sendRpsRequest(RpcRequest rpcRequest, long timeoutMillis) {
+        return sendRpsRequest(rpcRequest, serviceDiscovery.lookupService(rpcRequest), timeoutMillis);
+    }
+
+    /**
+     * 发往指定的服务端地址；取消返回的 future 后不再等待响应
+     */
+    public CompletableFuture<RpcResponse<Object>> sendRpsRequest(RpcRequest rpcRequest, InetSocketAddress inetSocketAddress,
+                                                                long timeoutMillis) {
         CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
-        InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest);
-        Channel channel = getChannel(inetSocketAddress);
+        // 请求是否已交给连接写出；还在连接上排队时超时是客户端自己的积压，与服务端的延迟无关
+        AtomicBoolean written = new AtomicBoolean();
+        // 未完成的调用过多时按 rpc.client.overload-policy 失败、等待或排队
+        flowController.acquire().whenComplete((v, e) -> {
+            if (e != null) {
+                resultFuture.completeExceptionally(e);
+                return;
+            }
+            resultFuture.whenComplete((r, ex) -> flowController.release());
+            // 该地址的自适应并发上限已满时按 rpc.client.adaptive-limit.policy 失败或排队
+            concurrencyLimiter.acquire(inetSocketAddress).whenComplete((permit, ex) -> {
+                if (ex != null) {
+                    resultFuture.completeExceptionally(ex);
+                    return;
+                }
+                resultFuture.whenComplete((r, failure) -> {
+                    if (failure == null) {
+                        permit.success();
+                    } else if (isTimeout(failure) && written.get()) {
+                        permit.dropped();
+                    } else {
+                        permit.ignore();
+                    }
+                });
+                dispatch(inetSocketAddress, rpcRequest, resultFuture, timeoutMillis, written);
+            });
+        });
+        return resultFuture;
+    }
+
+    private static boolean isTimeout(Throwable failure) {
+        return failure instanceof RpcException
+                && ((RpcException) failure).getMessageEnum() == RpcErrorMessageEnum.REQUEST_TIMEOUT;
+    }
+
+    private void dispatch(InetSocketAddress inetSocketAddress, RpcRequest rpcRequest,
+                          CompletableFuture<RpcResponse<Object>> resultFuture, long timeoutMillis, AtomicBoolean written) {
+        // 已有连接时立即发送，否则在连接建立后由 EventLoop 发送，调用线程不等待建连
+        getChannel(inetSocketAddress).whenComplete((channel, e) -> {
+            if (e != null) {
+                resultFuture.completeExceptionally(e);
+                return;
+            }
+            try {
+                send(channel, rpcRequest, resultFuture, timeoutMillis, written);
+            } catch (RuntimeException ex) {
+                resultFuture.completeExceptionally(ex);
+            }
+        });
+    }
+
+    /**
+     * 未完成请求表只在连接的 EventLoop 上访问，因此整个发送过程放到 EventLoop 上执行；
+     * 在其他线程调用 writeAndFlush 本来也要提交一个任务，这里只是把登记请求一起放进去
+     */
+    private void send(Channel channel, RpcRequest rpcRequest, CompletableFuture<RpcResponse<Object>> resultFuture,
+                      long timeoutMillis, AtomicBoolean written) {
+        EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            sendInEventLoop(channel, rpcRequest, resultFuture, timeoutMillis, written);
+        } else {
+            eventLoop.execute(() -> {
+                try {
+                    sendInEventLoop(channel, rpcRequest, resultFuture, timeoutMillis, written);
+                } catch (RuntimeException e) {
+                    resultFuture.completeExceptionally(e);
+                }
+            });
+        }
+    }
+
+    private void sendInEventLoop(Channel channel, RpcRequest rpcRequest,
+                                 CompletableFuture<RpcResponse<Object>> resultFuture, long timeoutMillis,
+                                 AtomicBoolean written) {
         if (channel.isActive()) {
-            unprocessedRequests.put(rpcRequest.getRequestId(),resultFuture);
+            long requestId = unprocessedRequests.nextRequestId(channel);
+            if (protocolVersion == RpcConstants.VERSION_1) {
+                // v1 服务端只会原样返回消息体里的 requestId
+                rpcRequest.setRequestId(String.valueOf(requestId));
+            }
+            unprocessedRequests.put(channel, requestId, resultFuture, timeoutMillis);
+            resultFuture.whenComplete((r, e) -> {
+                if (e == null) {
+                    // 收到响应时由 NettyRpcClientHandler 发出排队的请求
+                    return;
+                }
+                channel.eventLoop().execute(() -> {
+                    if (e instanceof CancellationException) {
+                        // 调用方已取消（例如落败的对冲请求），迟到的响应在解码前就会被丢弃
+                        unprocessedRequests.remove(channel, requestId);
+                    }
+                    // 超时或取消的调用不会再有响应，空出的位置要在这里交给排队的请求
+                    flowController.resume(channel);
+                });
+            });
+            String methodKey = rpcRequest.getMethodKey();
             RpcMessage rpcMessage = RpcMessage.builder()
-                    .codec(SerializationTypeEnum.HESSIAN.getCode())
+                    .version(protocolVersion)
+                    .requestId(requestId)
+                    .codec(ChannelSession.get(channel).getCodec())
                     .data(rpcRequest)
-                    .compress(CompressTypeEnum.GZIP.getCode())
+                    .methodKey(methodKey)
+                    .compress(compressPolicy.select(rpcRequest.getInterfaceName(), methodKey))
                     .messageType(RpcConstants.REQUEST_TYPE).build();
-
-            channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
-                if (future.isSuccess()) {
-                    log.info("client send message :[{}]",rpcMessage);
-                } else  {
-                    future.channel().close();
-                    resultFuture.completeExceptionally(future.cause());
-                    log.error("send failed:",future.cause());
-                }
+            // 连接不可写或该连接上的调用数已达上限时先在连接上排队
+            flowController.send(channel, resultFuture, () -> {
+                written.set(true);
+                write(channel, rpcMessage, resultFuture);
             });
         } else {
-            throw new IllegalStateException();
+            resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE,
+                    String.valueOf(channel.remoteAddress())));
         }
-
-        return resultFuture;
     }
 
-    public Channel getChannel(InetSocketAddress inetSocketAddress) {
-        Channel channel = channelProvider.get(inetSocketAddress);
-        if (channel == null) {
-            channel = doConnect(inetSocketAddress);
-            channelProvider.set(inetSocketAddress,channel);
+    private void write(Channel channel, RpcMessage rpcMessage, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        if (requestBatcher.isEnabled(channel)) {
+            // 与同一时间窗口内的其他请求合并发送
+            requestBatcher.add(channel, rpcMessage);
+            return;
         }
-        return channel;
+        channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                log.info("client send message :[{}]",rpcMessage);
+            } else  {
+                // 编码失败时没有写出任何字节，只让这个请求失败，连接上的其他请求不受影响
+                if (!(future.cause() instanceof EncoderException)) {
+                    future.channel().close();
+                }
+                unprocessedRequests.remove(future.channel(), rpcMessage.getRequestId());
+                resultFuture.completeExceptionally(future.cause());
+                log.error("send failed:",future.cause());
+            }
+        });
+    }
+
+    public byte getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public CompletableFuture<Channel> getChannel(InetSocketAddress inetSocketAddress) {
+        return channelProvider.get(inetSocketAddress, this::doConnect);
     }
 }
@@ -1,9 +1,13 @@
 package com.gzh.remoting.transport.netty.client;
 
 import com.gzh.enums.CompressTypeEnum;
+import com.gzh.enums.RpcErrorMessageEnum;
 import com.gzh.enums.SerializationTypeEnum;
+import com.gzh.exception.RpcException;
 import com.gzh.factory.SingletonFactory;
 import com.gzh.remoting.constants.RpcConstants;
+import com.gzh.remoting.transport.netty.codec.ChannelSession;
+import com.gzh.remoting.dto.RpcHandshake;
 import com.gzh.remoting.dto.RpcMessage;
 import com.gzh.remoting.dto.RpcResponse;
 import io.netty.channel.*;
@@ -12,15 +16,17 @@ import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import java.net.InetSocketAddress;
+import java.util.List;
 
 @Slf4j
 public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
     private final UnprocessedRequests unprocessedRequests;
+    private final FlowController flowController;
     private final NettyRpcClient nettyRpcClient;
 
     public NettyRpcClientHandler() {
          this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        this.flowController = SingletonFactory.getInstance(FlowController.class);
         this.nettyRpcClient = SingletonFactory.getInstance(NettyRpcClient.class);
     }
 
@@ -32,9 +38,17 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
                 byte messageType = ((RpcMessage) msg).getMessageType();
                 if (messageType == RpcConstants.HEARTBEAT_RESPONSE_TYPE) {
                     log.info("heart: [{}]",tmp.getData());
+                } else if (messageType == RpcConstants.HANDSHAKE_RESPONSE_TYPE) {
+                    RpcHandshake agreed = (RpcHandshake) tmp.getData();
+                    log.info("handshake with [{}]: [{}]", ctx.channel().remoteAddress(), agreed);
+                    // 应答中的字典 id 就是服务端认识的本端字典
+                    ChannelSession.get(ctx.channel()).negotiated(agreed, agreed.getDictionaryIds());
                 } else if (messageType == RpcConstants.RESPONSE_TYPE) {
-                    RpcResponse<Object> rpcResponse = (RpcResponse<Object>) tmp.getData();
-                    unprocessedRequests.complete(rpcResponse);
+                    complete(ctx, tmp);
+                } else if (messageType == RpcConstants.BATCH_RESPONSE_TYPE) {
+                    for (RpcMessage response : (List<RpcMessage>) tmp.getData()) {
+                        complete(ctx, response);
+                    }
                 }
             }
         } finally {
@@ -42,16 +56,59 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    private void complete(ChannelHandlerContext ctx, RpcMessage tmp) {
+        RpcResponse<Object> rpcResponse = (RpcResponse<Object>) tmp.getData();
+        if (rpcResponse == null) {
+            // 解码器发现已经没有请求在等待这个响应，消息体没有反序列化
+            return;
+        }
+        if (tmp.getVersion() == RpcConstants.VERSION_1 && rpcResponse.getRequestId() == null) {
+            log.warn("discard v1 response without request id: [{}]", rpcResponse);
+            return;
+        }
+        // v1 服务端不回传头部的 requestId，只能用消息体里的
+        long requestId = tmp.getVersion() == RpcConstants.VERSION_1
+                ? Long.parseLong(rpcResponse.getRequestId()) : tmp.getRequestId();
+        // v2 的解码器已经丢弃了没人等待的响应；v1 要等消息体解出 requestId 后才能判断
+        if (tmp.getVersion() == RpcConstants.VERSION_1 && !unprocessedRequests.contains(ctx.channel(), requestId)) {
+            log.debug("discard late v1 response [{}] from [{}]", requestId, ctx.channel().remoteAddress());
+            return;
+        }
+        unprocessedRequests.complete(ctx.channel(), requestId, rpcResponse);
+        // 空出了位置，发出在该连接上排队的请求
+        flowController.resume(ctx.channel());
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            flowController.resume(ctx.channel());
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    /**
+     * 连接断开后不会再有响应，让等待中的请求立即失败
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        unprocessedRequests.failAll(ctx.channel(), new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED,
+                String.valueOf(ctx.channel().remoteAddress())));
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if (evt instanceof IdleStateEvent) {
             IdleState state = ((IdleStateEvent) evt).state();
             if (state == IdleState.WRITER_IDLE) {
                 log.info("write idle happen [{}]",ctx.channel().remoteAddress());
-                Channel channel = nettyRpcClient.getChannel((InetSocketAddress) ctx.channel().remoteAddress());
+                // 池中每个连接各自发心跳，不能再向连接池要连接（可能拿到别的连接，或在 EventLoop 上阻塞等待建连）
+                Channel channel = ctx.channel();
                 RpcMessage rpcMessage = new RpcMessage();
+                rpcMessage.setVersion(nettyRpcClient.getProtocolVersion());
                 rpcMessage.setCodec(SerializationTypeEnum.PROTOSTUFF.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+                rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
                 rpcMessage.setMessageType(RpcConstants.HEARTBEAT_REQUEST_TYPE);
                 rpcMessage.setData(RpcConstants.PING);
                 channel.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
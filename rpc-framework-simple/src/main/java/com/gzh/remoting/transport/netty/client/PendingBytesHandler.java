@@ -0,0 +1,30 @@
+package com.gzh.remoting.transport.netty.client;
+
+import com.gzh.factory.SingletonFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * 统计所有连接已编码、尚未写入 socket 的字节数，供 {@link FlowController} 判断全局字节上限。
+ * 放在编码器之前（靠近 head），写入 socket 或写失败时 promise 完成，再减回去。
+ */
+@ChannelHandler.Sharable
+public class PendingBytesHandler extends ChannelOutboundHandlerAdapter {
+    private final FlowController flowController = SingletonFactory.getInstance(FlowController.class);
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            int size = ((ByteBuf) msg).readableBytes();
+            if (size > 0) {
+                flowController.addPendingBytes(size);
+                promise = promise.unvoid();
+                promise.addListener(future -> flowController.addPendingBytes(-size));
+            }
+        }
+        ctx.write(msg, promise);
+    }
+}
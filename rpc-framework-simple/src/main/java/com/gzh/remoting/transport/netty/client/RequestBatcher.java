@@ -0,0 +1,107 @@
+package com.gzh.remoting.transport.netty.client;
+
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.factory.SingletonFactory;
+import com.gzh.remoting.constants.RpcConstants;
+import com.gzh.remoting.dto.RpcHandshake;
+import com.gzh.remoting.dto.RpcMessage;
+import com.gzh.remoting.dto.RpcResponse;
+import com.gzh.remoting.transport.netty.codec.ChannelSession;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端自动合并请求：同一连接上在 rpc.batch.window-us 内发出的请求，或攒够 rpc.batch.max-size 个请求，
+ * 合并成一个批量帧发送，减少帧头和系统调用。
+ * <p>
+ * 每个连接的待发请求只在该连接的 EventLoop 上访问，不需要加锁。
+ */
+@Slf4j
+public class RequestBatcher {
+    private static final AttributeKey<List<RpcMessage>> PENDING = AttributeKey.valueOf("batchPending");
+    private static final AttributeKey<ScheduledFuture<?>> SCHEDULED = AttributeKey.valueOf("batchScheduled");
+    private static final int DEFAULT_WINDOW_MICROS = 200;
+    private static final int DEFAULT_MAX_SIZE = 32;
+
+    private final UnprocessedRequests unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+    private final boolean enabled = RpcConfig.getBoolean(RpcConfigEnum.BATCH_ENABLED, false);
+    private final long windowMicros = RpcConfig.getInt(RpcConfigEnum.BATCH_WINDOW_MICROS, DEFAULT_WINDOW_MICROS);
+    private final int maxSize = Math.max(1, RpcConfig.getInt(RpcConfigEnum.BATCH_MAX_SIZE, DEFAULT_MAX_SIZE));
+
+    /**
+     * 开启了合并并且对端在握手中声明支持批量帧
+     */
+    public boolean isEnabled(Channel channel) {
+        return enabled && ChannelSession.get(channel).hasFeature(RpcHandshake.FEATURE_BATCH);
+    }
+
+    public void add(Channel channel, RpcMessage rpcMessage) {
+        EventLoop eventLoop = channel.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            addInEventLoop(channel, rpcMessage);
+        } else {
+            eventLoop.execute(() -> addInEventLoop(channel, rpcMessage));
+        }
+    }
+
+    private void addInEventLoop(Channel channel, RpcMessage rpcMessage) {
+        List<RpcMessage> pending = channel.attr(PENDING).get();
+        if (pending == null) {
+            pending = new ArrayList<>(maxSize);
+            channel.attr(PENDING).set(pending);
+        }
+        pending.add(rpcMessage);
+        if (pending.size() >= maxSize) {
+            flush(channel);
+        } else if (pending.size() == 1) {
+            channel.attr(SCHEDULED).set(channel.eventLoop().schedule(() -> flush(channel), windowMicros, TimeUnit.MICROSECONDS));
+        }
+    }
+
+    private void flush(Channel channel) {
+        ScheduledFuture<?> scheduled = channel.attr(SCHEDULED).getAndSet(null);
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        List<RpcMessage> pending = channel.attr(PENDING).getAndSet(null);
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        RpcMessage first = pending.get(0);
+        RpcMessage rpcMessage = pending.size() == 1 ? first : RpcMessage.builder()
+                .version(first.getVersion())
+                .codec(first.getCodec())
+                .compress(first.getCompress())
+                .messageType(RpcConstants.BATCH_REQUEST_TYPE)
+                .data(pending).build();
+        channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                log.info("client send [{}] requests in one frame", pending.size());
+            } else {
+                // 编码失败时没有写出任何字节，只让这一批请求失败
+                if (!(future.cause() instanceof EncoderException)) {
+                    future.channel().close();
+                }
+                log.error("send failed:", future.cause());
+                for (RpcMessage sent : pending) {
+                    CompletableFuture<RpcResponse<Object>> resultFuture =
+                            unprocessedRequests.remove(future.channel(), sent.getRequestId());
+                    if (resultFuture != null) {
+                        resultFuture.completeExceptionally(future.cause());
+                    }
+                }
+            }
+        });
+    }
+}
@@ -1,24 +1,193 @@
 package com.gzh.remoting.transport.netty.client;
 
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.enums.RpcErrorMessageEnum;
+import com.gzh.exception.RpcException;
 import com.gzh.remoting.dto.RpcResponse;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.collection.LongObjectHashMap;
+import io.netty.util.collection.LongObjectMap;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
 
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 尚未收到响应的请求，按连接保存。
+ * <p>
+ * 请求 id 在每个连接上从 1 开始递增，只需要在同一连接上唯一，因此不需要 UUID（及其背后的 SecureRandom）。
+ * <p>
+ * 每个连接的请求表是以 long 为键的开放寻址表（{@link LongObjectHashMap}，键不装箱），只在该连接的 EventLoop 上访问，
+ * 不需要加锁：发送、收到响应、写失败、连接断开本来就在 EventLoop 上，超时由时间轮线程提交到 EventLoop 处理。
+ * 除 {@link #pending(Channel)} 外的方法都必须在连接的 EventLoop 上调用。
+ * <p>
+ * 每个请求都在时间轮上登记超时，到期仍未收到响应时移除并以超时失败；连接断开时该连接上所有未完成的请求立即失败。
+ * 因此无论响应丢失、服务端不回复还是连接失效，等待中的请求都不会一直留在这里。
+ */
+@Slf4j
 public class UnprocessedRequests {
-    private static final Map<String, CompletableFuture<RpcResponse<Object>>> UNPROCESSED_RESPONSE_FUTURES = new ConcurrentHashMap<>();
+    private static final AttributeKey<ChannelRequests> CHANNEL_REQUESTS = AttributeKey.valueOf("unprocessedRequests");
+    private static final long DEFAULT_TIMEOUT_MS = 5000;
+    // 10ms 一格，512 格一圈；超时精度在 10ms 级别即可
+    static final Timer TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("rpc-request-timeout", true), 10, TimeUnit.MILLISECONDS, 512);
 
-    public void put(String requestId,CompletableFuture<RpcResponse<Object>> future) {
-        UNPROCESSED_RESPONSE_FUTURES.put(requestId,future);
+    private final long defaultTimeoutMillis = RpcConfig.getLong(RpcConfigEnum.CLIENT_TIMEOUT, DEFAULT_TIMEOUT_MS);
+
+    public long nextRequestId(Channel channel) {
+        return ++requests(channel).sequence;
     }
 
-    public void complete(RpcResponse<Object> rpcResponse) {
-        CompletableFuture<RpcResponse<Object>> future = UNPROCESSED_RESPONSE_FUTURES.remove(rpcResponse.getRequestId());
+    /**
+     * @param timeoutMillis 超时时间，不大于 0 时使用 rpc.client.timeout-ms；rpc.client.timeout-ms 也不大于 0 时不限时
+     */
+    public void put(Channel channel, long requestId, CompletableFuture<RpcResponse<Object>> future, long timeoutMillis) {
+        ChannelRequests requests = requests(channel);
+        PendingRequest pending = new PendingRequest(future);
+        requests.put(requestId, pending);
+        long timeout = timeoutMillis > 0 ? timeoutMillis : defaultTimeoutMillis;
+        if (timeout > 0) {
+            pending.timeout = TIMER.newTimeout(t -> {
+                RpcException cause = new RpcException(RpcErrorMessageEnum.REQUEST_TIMEOUT,
+                        "request " + requestId + " to " + channel.remoteAddress() + " timed out after " + timeout + "ms");
+                try {
+                    channel.eventLoop().execute(() -> {
+                        // 响应可能已经先到了
+                        if (requests.remove(requestId, pending)) {
+                            future.completeExceptionally(cause);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // EventLoop 已关闭，不会再有响应
+                    future.completeExceptionally(cause);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 解码器据此判断响应是否还有人等待，没有的话不必反序列化消息体
+     */
+    public boolean contains(Channel channel, long requestId) {
+        ChannelRequests requests = channel.attr(CHANNEL_REQUESTS).get();
+        return requests != null && requests.futures.containsKey(requestId);
+    }
+
+    /**
+     * 连接上尚未收到响应的请求数，连接池据此选择连接；可以在任意线程调用
+     */
+    public int pending(Channel channel) {
+        ChannelRequests requests = channel.attr(CHANNEL_REQUESTS).get();
+        return requests == null ? 0 : requests.size;
+    }
+
+    public CompletableFuture<RpcResponse<Object>> remove(Channel channel, long requestId) {
+        ChannelRequests requests = channel.attr(CHANNEL_REQUESTS).get();
+        PendingRequest pending = requests == null ? null : requests.remove(requestId);
+        if (pending == null) {
+            return null;
+        }
+        pending.cancelTimeout();
+        return pending.future;
+    }
+
+    /**
+     * 请求已超时、被取消（如对冲中落败的请求）或连接已断开时，迟到的响应直接丢弃，不影响连接上的其他请求
+     */
+    public void complete(Channel channel, long requestId, RpcResponse<Object> rpcResponse) {
+        CompletableFuture<RpcResponse<Object>> future = remove(channel, requestId);
         if (future != null) {
             future.complete(rpcResponse);
         } else {
-            throw new IllegalStateException();
+            log.debug("discard late response [{}] from [{}]", requestId, channel.remoteAddress());
+        }
+    }
+
+    /**
+     * 连接断开时让它上面所有未完成的请求立即失败
+     */
+    public void failAll(Channel channel, Throwable cause) {
+        ChannelRequests requests = channel.attr(CHANNEL_REQUESTS).get();
+        if (requests == null) {
+            return;
+        }
+        // 先整体取出再逐个失败，回调里发起的新请求不会影响遍历
+        PendingRequest[] all = requests.removeAll();
+        for (PendingRequest pending : all) {
+            pending.cancelTimeout();
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    private static ChannelRequests requests(Channel channel) {
+        Attribute<ChannelRequests> attr = channel.attr(CHANNEL_REQUESTS);
+        ChannelRequests requests = attr.get();
+        if (requests == null) {
+            ChannelRequests created = new ChannelRequests();
+            requests = attr.setIfAbsent(created);
+            if (requests == null) {
+                requests = created;
+            }
+        }
+        return requests;
+    }
+
+    private static final class ChannelRequests {
+        private final LongObjectMap<PendingRequest> futures = new LongObjectHashMap<>();
+        private long sequence;
+        // futures.size() 的副本，供其他线程读取
+        private volatile int size;
+
+        void put(long requestId, PendingRequest pending) {
+            futures.put(requestId, pending);
+            size = futures.size();
+        }
+
+        PendingRequest remove(long requestId) {
+            PendingRequest pending = futures.remove(requestId);
+            if (pending != null) {
+                size = futures.size();
+            }
+            return pending;
+        }
+
+        boolean remove(long requestId, PendingRequest pending) {
+            if (futures.get(requestId) != pending) {
+                return false;
+            }
+            remove(requestId);
+            return true;
+        }
+
+        PendingRequest[] removeAll() {
+            PendingRequest[] all = futures.values().toArray(new PendingRequest[0]);
+            futures.clear();
+            size = 0;
+            return all;
+        }
+    }
+
+    private static final class PendingRequest {
+        private final CompletableFuture<RpcResponse<Object>> future;
+        private volatile Timeout timeout;
+
+        PendingRequest(CompletableFuture<RpcResponse<Object>> future) {
+            this.future = future;
+        }
+
+        void cancelTimeout() {
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
         }
     }
 }
@@ -0,0 +1,152 @@
+package com.gzh.remoting.transport.netty.codec;
+
+import com.gzh.compress.dict.DictionaryRegistry;
+import com.gzh.enums.CompressTypeEnum;
+import com.gzh.enums.SerializationTypeEnum;
+import com.gzh.factory.SingletonFactory;
+import com.gzh.remoting.dto.RpcHandshake;
+import com.gzh.remoting.handler.RpcInvoker;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一个连接上通过握手协商出的状态。
+ * <p>
+ * 未握手（v1 连接或握手超时）时使用默认值：hessian 序列化，只用 none/gzip 压缩，方法不做编号。
+ */
+public final class ChannelSession {
+    private static final AttributeKey<ChannelSession> CHANNEL_SESSION = AttributeKey.valueOf("channelSession");
+    private static final int DEFAULT_COMPRESS_MASK =
+            1 << CompressTypeEnum.NONE.getCode() | 1 << CompressTypeEnum.GZIP.getCode();
+
+    private final DictionaryRegistry dictionaryRegistry = SingletonFactory.getInstance(DictionaryRegistry.class);
+    private final CompletableFuture<RpcHandshake> handshake = new CompletableFuture<>();
+    private volatile boolean negotiated;
+    private volatile byte codec = SerializationTypeEnum.HESSIAN.getCode();
+    // 双方都能解码的序列化方式
+    private volatile int codecMask = 1 << SerializationTypeEnum.HESSIAN.getCode();
+    private volatile int compressMask = DEFAULT_COMPRESS_MASK;
+    private volatile Set<Integer> peerDictionaryIds = new HashSet<>();
+    private volatile int features;
+    /**
+     * client side: method ids already registered on this connection, only touched by the encoder on the event loop
+     */
+    private final Set<Integer> registeredMethods = new HashSet<>();
+    /**
+     * server side: methods registered by the client on this connection
+     */
+    private final Map<Integer, RpcInvoker> invokers = new ConcurrentHashMap<>();
+
+    private ChannelSession() {
+    }
+
+    public static ChannelSession get(Channel channel) {
+        Attribute<ChannelSession> attr = channel.attr(CHANNEL_SESSION);
+        ChannelSession session = attr.get();
+        if (session == null) {
+            ChannelSession created = new ChannelSession();
+            session = attr.setIfAbsent(created);
+            if (session == null) {
+                session = created;
+            }
+        }
+        return session;
+    }
+
+    /**
+     * 记录协商结果
+     *
+     * @param agreed            服务端的握手应答
+     * @param peerDictionaryIds 对端认识的字典 id
+     */
+    public void negotiated(RpcHandshake agreed, int[] peerDictionaryIds) {
+        if (agreed.getCodecs() != null && agreed.getCodecs().length > 0) {
+            this.codec = agreed.getCodecs()[0];
+            int codecs = 0;
+            for (byte c : agreed.getCodecs()) {
+                if (c >= 0 && c < Integer.SIZE) {
+                    codecs |= 1 << c;
+                }
+            }
+            this.codecMask = codecs;
+        }
+        int mask = DEFAULT_COMPRESS_MASK;
+        if (agreed.getCompressors() != null) {
+            for (byte c : agreed.getCompressors()) {
+                mask |= 1 << c;
+            }
+        }
+        this.compressMask = mask;
+        Set<Integer> ids = new HashSet<>();
+        if (peerDictionaryIds != null) {
+            for (int id : peerDictionaryIds) {
+                ids.add(id);
+            }
+        }
+        this.peerDictionaryIds = ids;
+        this.features = agreed.getFeatures();
+        this.negotiated = true;
+        handshake.complete(agreed);
+    }
+
+    public CompletableFuture<RpcHandshake> getHandshake() {
+        return handshake;
+    }
+
+    public boolean isNegotiated() {
+        return negotiated;
+    }
+
+    public boolean hasFeature(int feature) {
+        return (features & feature) != 0;
+    }
+
+    public byte getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return 双方都能解码的序列化方式，按 code 的位掩码
+     */
+    public int getCodecMask() {
+        return codecMask;
+    }
+
+    /**
+     * 把本端想用的压缩方式换成对端能解的：字典压缩要求对端认识本端当前的字典，否则不压缩；其余退回 gzip
+     */
+    public byte acceptCompress(byte compressType) {
+        if (compressType == CompressTypeEnum.DICT.getCode()) {
+            Integer active = dictionaryRegistry.getActiveId();
+            boolean usable = (compressMask & 1 << compressType) != 0 && active != null && peerDictionaryIds.contains(active);
+            return usable ? compressType : CompressTypeEnum.NONE.getCode();
+        }
+        if (compressType < 0 || compressType >= Integer.SIZE || (compressMask & 1 << compressType) == 0) {
+            return CompressTypeEnum.GZIP.getCode();
+        }
+        return compressType;
+    }
+
+    public boolean isRegistered(int methodId) {
+        return registeredMethods.contains(methodId);
+    }
+
+    public void markRegistered(int methodId) {
+        registeredMethods.add(methodId);
+    }
+
+    public void register(int methodId, RpcInvoker invoker) {
+        invokers.put(methodId, invoker);
+    }
+
+    public RpcInvoker getInvoker(int methodId) {
+        return invokers.get(methodId);
+    }
+}
@@ -4,33 +4,38 @@ import com.gzh.compress.Compress;
 import com.gzh.enums.CompressTypeEnum;
 import com.gzh.enums.SerializationTypeEnum;
 import com.gzh.extension.ExtensionLoader;
+import com.gzh.factory.SingletonFactory;
 import com.gzh.remoting.constants.RpcConstants;
+import com.gzh.remoting.dto.RpcHandshake;
 import com.gzh.remoting.dto.RpcMessage;
 import com.gzh.remoting.dto.RpcRequest;
 import com.gzh.remoting.dto.RpcResponse;
+import com.gzh.remoting.transport.netty.client.UnprocessedRequests;
 import com.gzh.serialize.Serializer;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * custom protocol decoder
  * <pre>
- *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15 16
- *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+
- *   |   magic   code        |version | full length         | messageType| codec|compress|    RequestId       |
- *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------+
- *   |                                                                                                       |
- *   |                                         body                                                          |
- *   |                                                                                                       |
- *   |                                        ... ...                                                        |
- *   +-------------------------------------------------------------------------------------------------------+
+ *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14  15  16  17  18  19  20
+ *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+---+---+---+---+---+---+---+---+
+ *   |   magic   code        |version | full length         | messageType| codec|compress|          RequestId            |
+ *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------------------+
+ *   |                                                                                                                   |
+ *   |                                         body                                                                      |
+ *   |                                                                                                                   |
+ *   |                                        ... ...                                                                    |
+ *   +-------------------------------------------------------------------------------------------------------------------+
  * 4B  magic code（魔法数）   1B version（版本）   4B full length（消息长度）    1B messageType（消息类型）
- * 1B compress（压缩类型） 1B codec（序列化类型）    4B  requestId（请求的Id）
+ * 1B compress（压缩类型） 1B codec（序列化类型）    8B  requestId（请求的Id，连接内唯一，响应原样带回）
  * body（object类型数据）
+ * v1 的 requestId 只有 4B，头部共 16B，对端不用它匹配响应
  * </pre>
  * <p>
  * {@link LengthFieldBasedFrameDecoder} is a length-based decoder , used to solve TCP unpacking and sticking problems.
@@ -42,6 +47,8 @@ import java.util.Arrays;
  */
 @Slf4j
 public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
+    private final UnprocessedRequests unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+
     public RpcMessageDecoder() {
         // lengthFieldOffset: magic code is 4B, and version is 1B, and then full length. so value is 5
         // lengthFieldLength: full length is 4B. so value is 4
@@ -72,7 +79,7 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
             ByteBuf frame = (ByteBuf) decoded;
             if (frame.readableBytes() >= RpcConstants.TOTAL_LENGTH) {
                 try {
-                    return decodeFrame(frame);
+                    return decodeFrame(ctx, frame);
                 } catch (Exception e) {
                     log.error("Decode frame error!", e);
                     throw e;
@@ -85,17 +92,29 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
     }
 
 
-    private Object decodeFrame(ByteBuf in) {
+    private Object decodeFrame(ChannelHandlerContext ctx, ByteBuf in) {
         // note: must read ByteBuf in order
+        int frameLength = in.readableBytes();
         checkMagicNumber(in);
-        checkVersion(in);
+        byte version = checkVersion(in);
+        // a v2 header is longer than the 16 bytes checked in decode, make sure the whole header is there
+        int headLength = RpcConstants.headLength(version);
+        if (frameLength < headLength) {
+            throw new IllegalArgumentException("frame of " + frameLength + " bytes is shorter than the v"
+                    + version + " header (" + headLength + " bytes)");
+        }
         int fullLength = in.readInt();
+        if (fullLength < headLength) {
+            throw new IllegalArgumentException("full length " + fullLength + " is shorter than the v"
+                    + version + " header (" + headLength + " bytes)");
+        }
         // build RpcMessage object
         byte messageType = in.readByte();
         byte codecType = in.readByte();
         byte compressType = in.readByte();
-        int requestId = in.readInt();
+        long requestId = version == RpcConstants.VERSION_1 ? in.readInt() : in.readLong();
         RpcMessage rpcMessage = RpcMessage.builder()
+                .version(version)
                 .codec(codecType)
                 .requestId(requestId)
                 .messageType(messageType).build();
@@ -107,49 +126,96 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
             rpcMessage.setData(RpcConstants.PONG);
             return rpcMessage;
         }
-        int bodyLength = fullLength - RpcConstants.HEAD_LENGTH;
+        if (messageType == RpcConstants.RESPONSE_TYPE && version != RpcConstants.VERSION_1
+                && !unprocessedRequests.contains(ctx.channel(), requestId)) {
+            // matched by the header alone: nobody waits for this response any more, skip the body
+            log.debug("discard response [{}] without pending request", requestId);
+            return rpcMessage;
+        }
+        int bodyLength = fullLength - headLength;
         if (bodyLength > 0) {
-            byte[] bs = new byte[bodyLength];
-            in.readBytes(bs);
-            // decompress the bytes
-            String compressName = CompressTypeEnum.getName(compressType);
-            Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
-                    .getExtension(compressName);
-            bs = compress.decompress(bs);
-            // deserialize the object
+            // the body is a slice of the frame, nothing is copied out of it
+            ByteBuf body = in.readSlice(bodyLength);
             String codecName = SerializationTypeEnum.getName(rpcMessage.getCodec());
             log.info("codec name: [{}] ", codecName);
             Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class)
                     .getExtension(codecName);
-            if (messageType == RpcConstants.REQUEST_TYPE) {
-                RpcRequest tmpValue = serializer.deserialize(bs, RpcRequest.class);
-                rpcMessage.setData(tmpValue);
-            } else {
-                RpcResponse tmpValue = serializer.deserialize(bs, RpcResponse.class);
-                rpcMessage.setData(tmpValue);
+            if (compressType == CompressTypeEnum.NONE.getCode()) {
+                rpcMessage.setData(readBody(ctx, rpcMessage, serializer, body));
+                return rpcMessage;
+            }
+            // decompress into a pooled buffer and deserialize straight from it
+            String compressName = CompressTypeEnum.getName(compressType);
+            Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
+                    .getExtension(compressName);
+            ByteBuf decompressed = ctx.alloc().buffer(bodyLength);
+            try {
+                compress.decompress(body, decompressed);
+                rpcMessage.setData(readBody(ctx, rpcMessage, serializer, decompressed));
+            } finally {
+                decompressed.release();
             }
         }
         return rpcMessage;
 
     }
 
-    private void checkVersion(ByteBuf in) {
-        // read the version and compare
+    private Object readBody(ChannelHandlerContext ctx, RpcMessage rpcMessage, Serializer serializer, ByteBuf body) {
+        byte messageType = rpcMessage.getMessageType();
+        if (messageType != RpcConstants.BATCH_REQUEST_TYPE && messageType != RpcConstants.BATCH_RESPONSE_TYPE) {
+            return serializer.deserialize(body, bodyClass(messageType));
+        }
+        // batch: 4B count, then [8B requestId][4B length][body] per call
+        byte itemType = messageType == RpcConstants.BATCH_REQUEST_TYPE
+                ? RpcConstants.REQUEST_TYPE : RpcConstants.RESPONSE_TYPE;
+        int count = body.readInt();
+        List<RpcMessage> rpcMessages = new ArrayList<>(Math.max(0, Math.min(count, body.readableBytes() / 12)));
+        for (int i = 0; i < count; i++) {
+            long requestId = body.readLong();
+            ByteBuf item = body.readSlice(body.readInt());
+            RpcMessage itemMessage = RpcMessage.builder()
+                    .version(rpcMessage.getVersion())
+                    .codec(rpcMessage.getCodec())
+                    .requestId(requestId)
+                    .messageType(itemType).build();
+            if (itemType == RpcConstants.RESPONSE_TYPE && !unprocessedRequests.contains(ctx.channel(), requestId)) {
+                log.debug("discard response [{}] without pending request", requestId);
+            } else {
+                itemMessage.setData(serializer.deserialize(item, bodyClass(itemType)));
+            }
+            rpcMessages.add(itemMessage);
+        }
+        return rpcMessages;
+    }
+
+    private static Class<?> bodyClass(byte messageType) {
+        switch (messageType) {
+            case RpcConstants.REQUEST_TYPE:
+                return RpcRequest.class;
+            case RpcConstants.RESPONSE_TYPE:
+                return RpcResponse.class;
+            case RpcConstants.HANDSHAKE_REQUEST_TYPE:
+            case RpcConstants.HANDSHAKE_RESPONSE_TYPE:
+                return RpcHandshake.class;
+            default:
+                throw new IllegalArgumentException("Unknown message type: " + messageType);
+        }
+    }
+
+    private byte checkVersion(ByteBuf in) {
+        // read the version and compare, v1 peers are still accepted during a rolling upgrade
         byte version = in.readByte();
-        if (version != RpcConstants.VERSION) {
+        if (!RpcConstants.isSupportedVersion(version)) {
             throw new RuntimeException("version isn't compatible" + version);
         }
+        return version;
     }
 
     private void checkMagicNumber(ByteBuf in) {
-        // read the first 4 bit, which is the magic number, and compare
-        int len = RpcConstants.MAGIC_NUMBER.length;
-        byte[] tmp = new byte[len];
-        in.readBytes(tmp);
-        for (int i = 0; i < len; i++) {
-            if (tmp[i] != RpcConstants.MAGIC_NUMBER[i]) {
-                throw new IllegalArgumentException("Unknown magic code: " + Arrays.toString(tmp));
-            }
+        // read the first 4 bytes as one int, which is the magic number, and compare
+        int magic = in.readInt();
+        if (magic != RpcConstants.MAGIC_NUMBER_INT) {
+            throw new IllegalArgumentException("Unknown magic code: 0x" + Integer.toHexString(magic));
         }
     }
 
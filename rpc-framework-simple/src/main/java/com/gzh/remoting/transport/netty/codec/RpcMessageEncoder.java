@@ -2,18 +2,25 @@ package com.gzh.remoting.transport.netty.codec;
 
 
 import com.gzh.compress.Compress;
+import com.gzh.compress.CompressPolicy;
+import com.gzh.compress.dict.DictionaryTrainer;
 import com.gzh.enums.CompressTypeEnum;
 import com.gzh.enums.SerializationTypeEnum;
 import com.gzh.extension.ExtensionLoader;
+import com.gzh.factory.SingletonFactory;
 import com.gzh.remoting.constants.RpcConstants;
 import com.gzh.remoting.dto.RpcMessage;
+import com.gzh.remoting.dto.RpcRequest;
+import com.gzh.serialize.CodecSelector;
 import com.gzh.serialize.Serializer;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.function.Consumer;
 
 
 /**
@@ -21,18 +28,19 @@ import java.util.concurrent.atomic.AtomicInteger;
  * custom protocol decoder
  * <p>
  * <pre>
- *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14   15 16
- *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+-----+-----+-------+
- *   |   magic   code        |version | full length         | messageType| codec|compress|    RequestId       |
- *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------+
- *   |                                                                                                       |
- *   |                                         body                                                          |
- *   |                                                                                                       |
- *   |                                        ... ...                                                        |
- *   +-------------------------------------------------------------------------------------------------------+
+ *   0     1     2     3     4        5     6     7     8         9          10      11     12  13  14  15  16  17  18  19  20
+ *   +-----+-----+-----+-----+--------+----+----+----+------+-----------+-------+----- --+---+---+---+---+---+---+---+---+
+ *   |   magic   code        |version | full length         | messageType| codec|compress|          RequestId            |
+ *   +-----------------------+--------+---------------------+-----------+-----------+-----------+------------------------+
+ *   |                                                                                                                   |
+ *   |                                         body                                                                      |
+ *   |                                                                                                                   |
+ *   |                                        ... ...                                                                    |
+ *   +-------------------------------------------------------------------------------------------------------------------+
  * 4B  magic code（魔法数）   1B version（版本）   4B full length（消息长度）    1B messageType（消息类型）
- * 1B compress（压缩类型） 1B codec（序列化类型）    4B  requestId（请求的Id）
+ * 1B compress（压缩类型） 1B codec（序列化类型）    8B  requestId（请求的Id，连接内唯一，响应原样带回）
  * body（object类型数据）
+ * v1 的 requestId 只有 4B，头部共 16B，对端不用它匹配响应
  * </pre>
  *
  * @author WangTao
@@ -42,17 +50,37 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j  // 使用@Slf4j注解自动生成日志记录器
 public class RpcMessageEncoder extends MessageToByteEncoder<RpcMessage> {
-    // 创建一个原子整数，记录每次编码时的序列号
-    private static final AtomicInteger ATOMIC_INTEGER = new AtomicInteger(0);
+    // 尚无统计数据时的帧大小估计值
+    private static final int INITIAL_SIZE_ESTIMATE = 256;
+    // 估计值变小时的衰减速度（每次衰减差值的 1/8），变大时立即跟上
+    private static final int SIZE_ESTIMATE_DECAY_SHIFT = 3;
+    private static final byte NONE = CompressTypeEnum.NONE.getCode();
+
+    private final CompressPolicy compressPolicy = SingletonFactory.getInstance(CompressPolicy.class);
+    private final DictionaryTrainer dictionaryTrainer = SingletonFactory.getInstance(DictionaryTrainer.class);
+    private final CodecSelector codecSelector = SingletonFactory.getInstance(CodecSelector.class);
+
+    // 按消息类型记录的帧大小估计值，编码器按连接创建且只在其 EventLoop 上运行，无需同步
+    private final int[] sizeEstimates = new int[Byte.MAX_VALUE + 1];
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, RpcMessage rpcMessage, boolean preferDirect) {
+        // 按估计值一次性申请池化缓冲区，避免写入过程中反复扩容拷贝
+        int estimate = estimateSize(rpcMessage.getMessageType());
+        return preferDirect ? ctx.alloc().ioBuffer(estimate) : ctx.alloc().heapBuffer(estimate);
+    }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) {
+        // 记录帧的起始位置，最后据此回填总长度
+        int frameStart = out.writerIndex();
         try {
             // 写入魔数（Magic Number）标识协议开始，通常用来验证协议的一致性
-            out.writeBytes(RpcConstants.MAGIC_NUMBER);
+            out.writeInt(RpcConstants.MAGIC_NUMBER_INT);
 
-            // 写入版本号，标识协议版本
-            out.writeByte(RpcConstants.VERSION);
+            // 写入版本号，标识协议版本；未指定时使用当前版本
+            byte version = rpcMessage.getVersion() == 0 ? RpcConstants.VERSION : rpcMessage.getVersion();
+            out.writeByte(version);
 
             // 留出位置写入总长度（full length），初始为4个字节，稍后会更新该字段
             out.writerIndex(out.writerIndex() + 4);
@@ -61,18 +89,20 @@ public class RpcMessageEncoder extends MessageToByteEncoder<RpcMessage> {
             byte messageType = rpcMessage.getMessageType();
             out.writeByte(messageType);
 
-            // 写入编码方式（例如，是否使用JSON、Protobuf等进行序列化）
+            // 写入编码方式（例如，是否使用JSON、Protobuf等进行序列化）；自动选择序列化方式时稍后回填
+            int codecIndex = out.writerIndex();
             out.writeByte(rpcMessage.getCodec());
 
-            // 写入压缩方式（例如，是否使用GZIP等进行压缩）
-            out.writeByte(CompressTypeEnum.GZIP.getCode());
-
-            // 写入一个唯一的序列号，保证每个请求都有不同的ID
-            out.writeInt(ATOMIC_INTEGER.getAndIncrement());
+            // 压缩方式要等消息体写完才能确定，先占位，稍后回填实际使用的压缩方式
+            int compressTypeIndex = out.writerIndex();
+            out.writeByte(NONE);
 
-            // 初始化bodyBytes和总长度（full length）
-            byte[] bodyBytes = null;
-            int fullLength = RpcConstants.HEAD_LENGTH;  // 头部长度是固定的，通常是协议头的长度
+            // 写入请求 id：v2 为 8 字节，v1 只有 4 字节且对端不会使用
+            if (version == RpcConstants.VERSION_1) {
+                out.writeInt((int) rpcMessage.getRequestId());
+            } else {
+                out.writeLong(rpcMessage.getRequestId());
+            }
 
             // 如果消息类型不是心跳请求或心跳响应，则需要进行数据序列化和压缩
             if (messageType != RpcConstants.HEARTBEAT_REQUEST_TYPE
@@ -86,44 +116,224 @@ public class RpcMessageEncoder extends MessageToByteEncoder<RpcMessage> {
                 Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class)
                         .getExtension(codecName);
 
-                // 序列化消息体数据
-                bodyBytes = serializer.serialize(rpcMessage.getData());
+                // 写入消息体，并回填实际使用的压缩方式
+                if (version == RpcConstants.VERSION_1) {
+                    out.setByte(compressTypeIndex, writeLegacyBody(rpcMessage, serializer, out));
+                } else if (isBatch(messageType)) {
+                    ChannelSession session = ChannelSession.get(ctx.channel());
+                    out.setByte(compressTypeIndex, writeBody(ctx, rpcMessage, session, out,
+                            body -> writeBatch(session, rpcMessage, serializer, body)));
+                } else {
+                    ChannelSession session = ChannelSession.get(ctx.channel());
+                    Object data = compactRequest(session, rpcMessage);
+                    if (isAdaptive(rpcMessage, session)) {
+                        out.setByte(compressTypeIndex, writeAdaptiveBody(ctx, rpcMessage, session, data, out, codecIndex));
+                    } else {
+                        out.setByte(compressTypeIndex, writeBody(ctx, rpcMessage, session, out,
+                                body -> serializer.serialize(data, body)));
+                    }
+                    markRegistered(session, rpcMessage, data);
+                }
+            }
+
+            // 回填完整消息长度：长度字段位于魔数和版本号之后
+            int fullLength = out.writerIndex() - frameStart;
+            out.setInt(frameStart + RpcConstants.MAGIC_NUMBER.length + 1, fullLength);
+
+            // 用本次的帧大小修正估计值
+            updateSizeEstimate(messageType, fullLength);
+
+        } catch (Exception e) {
+            // 丢弃写了一半的帧，否则它会带着错误的长度被发出去，对端无法再解析后续的帧；
+            // 抛出后这次写操作失败，发送方立即得知，不必等到超时
+            out.writerIndex(frameStart);
+            log.error("Encode request error!", e);
+            throw new EncoderException(e);
+        }
+    }
 
-                // 获取压缩类型名称（例如GZIP）
-                String compressName = CompressTypeEnum.getName(rpcMessage.getCompress());
+    private static boolean isBatch(byte messageType) {
+        return messageType == RpcConstants.BATCH_REQUEST_TYPE || messageType == RpcConstants.BATCH_RESPONSE_TYPE;
+    }
 
-                // 通过扩展加载器获取对应的压缩器
-                Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
-                        .getExtension(compressName);
+    /**
+     * 批量消息体：4B 条数，之后每条为 8B requestId + 4B 长度 + 序列化后的请求或响应
+     */
+    @SuppressWarnings("unchecked")
+    private void writeBatch(ChannelSession session, RpcMessage batch, Serializer serializer, ByteBuf body) {
+        List<RpcMessage> rpcMessages = (List<RpcMessage>) batch.getData();
+        body.writeInt(rpcMessages.size());
+        for (RpcMessage rpcMessage : rpcMessages) {
+            body.writeLong(rpcMessage.getRequestId());
+            int lengthIndex = body.writerIndex();
+            body.writeInt(0);
+            // 同一批中同一方法的后续调用也能使用精简请求
+            Object data = compactRequest(session, rpcMessage);
+            serializer.serialize(data, body);
+            body.setInt(lengthIndex, body.writerIndex() - lengthIndex - 4);
+            markRegistered(session, rpcMessage, data);
+        }
+    }
 
-                // 压缩序列化后的字节数据
-                bodyBytes = compress.compress(bodyBytes);
+    private boolean isAdaptive(RpcMessage rpcMessage, ChannelSession session) {
+        byte messageType = rpcMessage.getMessageType();
+        return codecSelector.isEnabled() && session.isNegotiated() && rpcMessage.getMethodKey() != null
+                && (messageType == RpcConstants.REQUEST_TYPE || messageType == RpcConstants.RESPONSE_TYPE);
+    }
 
-                // 更新完整消息长度
-                fullLength += bodyBytes.length;
+    /**
+     * 按 {@link CodecSelector} 为该方法选出的序列化方式写入消息体，并回填帧头的 codec。
+     * 选出的方式序列化失败时，排除它并改用消息原本指定的序列化方式重写
+     *
+     * @return 实际使用的压缩方式
+     */
+    private byte writeAdaptiveBody(ChannelHandlerContext ctx, RpcMessage rpcMessage, ChannelSession session, Object data,
+                                   ByteBuf out, int codecIndex) {
+        String methodKey = rpcMessage.getMethodKey();
+        byte fallback = rpcMessage.getCodec();
+        byte codec = codecSelector.select(methodKey, session.getCodecMask(), fallback);
+        int bodyStart = out.writerIndex();
+        try {
+            byte compressType = writeMeasuredBody(ctx, rpcMessage, session, data, out, methodKey, codec);
+            out.setByte(codecIndex, codec);
+            return compressType;
+        } catch (RuntimeException e) {
+            if (codec == fallback) {
+                throw e;
             }
+            codecSelector.fail(methodKey, codec);
+            out.writerIndex(bodyStart);
+            out.setByte(codecIndex, fallback);
+            return writeMeasuredBody(ctx, rpcMessage, session, data, out, methodKey, fallback);
+        }
+    }
 
-            // 如果有bodyBytes，写入消息体
-            if (bodyBytes != null) {
-                out.writeBytes(bodyBytes);
+    private byte writeMeasuredBody(ChannelHandlerContext ctx, RpcMessage rpcMessage, ChannelSession session, Object data,
+                                   ByteBuf out, String methodKey, byte codec) {
+        Serializer serializer = ExtensionLoader.getExtensionLoader(Serializer.class)
+                .getExtension(SerializationTypeEnum.getName(codec));
+        return writeBody(ctx, rpcMessage, session, out, body -> {
+            int start = body.writerIndex();
+            long startNanos = System.nanoTime();
+            serializer.serialize(data, body);
+            codecSelector.record(methodKey, codec, System.nanoTime() - startNanos, body.writerIndex() - start);
+        });
+    }
+
+    /**
+     * 方法已经在这个连接上注册过时，请求只带 methodId 和参数。
+     * 编码器按写出顺序在 EventLoop 上运行，所以对端一定先收到完整的注册请求
+     */
+    private Object compactRequest(ChannelSession session, RpcMessage rpcMessage) {
+        Object data = rpcMessage.getData();
+        if (rpcMessage.getMessageType() != RpcConstants.REQUEST_TYPE || !(data instanceof RpcRequest)
+                || !session.isNegotiated()) {
+            return data;
+        }
+        RpcRequest rpcRequest = (RpcRequest) data;
+        Integer methodId = rpcRequest.getMethodId();
+        if (methodId == null || !session.isRegistered(methodId)) {
+            return data;
+        }
+        return RpcRequest.builder()
+                .methodId(methodId)
+                .parameters(rpcRequest.getParameters())
+                .build();
+    }
+
+    /**
+     * 完整的注册请求写出之后，后续调用改用精简请求
+     */
+    private void markRegistered(ChannelSession session, RpcMessage rpcMessage, Object data) {
+        if (data instanceof RpcRequest && data == rpcMessage.getData() && session.isNegotiated()) {
+            Integer methodId = ((RpcRequest) data).getMethodId();
+            if (methodId != null) {
+                session.markRegistered(methodId);
             }
+        }
+    }
 
-            // 获取当前的写指针位置
-            int writeIndex = out.writerIndex();
+    /**
+     * 序列化并按压缩策略压缩消息体
+     *
+     * @return 实际使用的压缩方式
+     */
+    private byte writeBody(ChannelHandlerContext ctx, RpcMessage rpcMessage, ChannelSession session, ByteBuf out,
+                           Consumer<ByteBuf> bodyWriter) {
+        byte preferred = rpcMessage.getCompress();
+        if (preferred == NONE && !dictionaryTrainer.isSampling()) {
+            // 不需要压缩时直接序列化进 out
+            bodyWriter.accept(out);
+            return NONE;
+        }
+        // 序列化结果写入池化的临时缓冲区，再由压缩器直接压缩进 out，全程不产生中间字节数组
+        ByteBuf body = ctx.alloc().buffer(estimateSize(rpcMessage.getMessageType()) - RpcConstants.HEAD_LENGTH);
+        try {
+            bodyWriter.accept(body);
+            int rawStart = body.readerIndex();
+            int rawLength = body.readableBytes();
+            // 采样消息体用于训练共享字典
+            dictionaryTrainer.offer(body, rawStart, rawLength);
+            String methodKey = rpcMessage.getMethodKey();
+            // 只使用对端在握手中声明支持的压缩方式
+            byte compressType = session.acceptCompress(compressPolicy.apply(preferred, methodKey, rawLength));
+            if (compressType == NONE) {
+                out.writeBytes(body);
+                return NONE;
+            }
+            // 获取压缩类型名称（例如GZIP），通过扩展加载器获取对应的压缩器
+            Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
+                    .getExtension(CompressTypeEnum.getName(compressType));
+            int bodyStart = out.writerIndex();
+            compress.compress(body, out);
+            int compressedLength = out.writerIndex() - bodyStart;
+            compressPolicy.record(methodKey, rawLength, compressedLength);
+            if (compressedLength >= rawLength) {
+                // 压缩后反而变大，改为发送原始数据
+                out.writerIndex(bodyStart);
+                out.writeBytes(body, rawStart, rawLength);
+                return NONE;
+            }
+            return compressType;
+        } finally {
+            body.release();
+        }
+    }
 
-            // 将之前留出的4个字节位置更新为完整长度
-            // 这里通过调整写指针，重新写入消息的总长度字段
-            out.writerIndex(writeIndex - fullLength + RpcConstants.MAGIC_NUMBER.length + 1);
-            out.writeInt(fullLength);
+    /**
+     * v1 对端总是按 gzip 解压消息体，因此不走压缩策略，始终按指定方式压缩
+     *
+     * @return 实际使用的压缩方式
+     */
+    private byte writeLegacyBody(RpcMessage rpcMessage, Serializer serializer, ByteBuf out) {
+        byte compressType = rpcMessage.getCompress() == NONE ? CompressTypeEnum.GZIP.getCode() : rpcMessage.getCompress();
+        Compress compress = ExtensionLoader.getExtensionLoader(Compress.class)
+                .getExtension(CompressTypeEnum.getName(compressType));
+        ByteBuf body = out.alloc().buffer(estimateSize(rpcMessage.getMessageType()) - RpcConstants.HEAD_LENGTH_V1);
+        try {
+            serializer.serialize(rpcMessage.getData(), body);
+            compress.compress(body, out);
+            return compressType;
+        } finally {
+            body.release();
+        }
+    }
 
-            // 恢复写指针到原来的位置
-            out.writerIndex(writeIndex);
+    private int estimateSize(byte messageType) {
+        int estimate = messageType >= 0 ? sizeEstimates[messageType] : 0;
+        return estimate > RpcConstants.HEAD_LENGTH ? estimate : INITIAL_SIZE_ESTIMATE;
+    }
 
-        } catch (Exception e) {
-            // 异常处理：编码过程中发生错误时，记录日志并输出错误信息
-            log.error("Encode request error!", e);
+    private void updateSizeEstimate(byte messageType, int frameLength) {
+        if (messageType < 0) {
+            return;
+        }
+        int estimate = sizeEstimates[messageType];
+        if (frameLength >= estimate) {
+            sizeEstimates[messageType] = frameLength;
+        } else {
+            sizeEstimates[messageType] = estimate - ((estimate - frameLength) >> SIZE_ESTIMATE_DECAY_SHIFT);
         }
     }
 }
 
-
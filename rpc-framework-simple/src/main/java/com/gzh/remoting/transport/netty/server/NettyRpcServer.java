@@ -1,7 +1,9 @@
 package com.gzh.remoting.transport.netty.server;
 
 import com.gzh.config.CustomShutdownHook;
+import com.gzh.config.RpcConfig;
 import com.gzh.config.RpcServiceConfig;
+import com.gzh.enums.RpcConfigEnum;
 import com.gzh.factory.SingletonFactory;
 import com.gzh.provider.ServiceProvider;
 import com.gzh.provider.ZkServiceProviderImpl;
@@ -14,6 +16,7 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -41,6 +44,8 @@ public class NettyRpcServer {
         String host = InetAddress.getLocalHost().getHostAddress();
         EventLoopGroup bossGroup = new NioEventLoopGroup(1);
         EventLoopGroup workerGroup = new NioEventLoopGroup();
+        int flushConsolidation = RpcConfig.getInt(RpcConfigEnum.FLUSH_CONSOLIDATION,
+                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES);
         DefaultEventExecutorGroup serviceHandlerGroup = new DefaultEventExecutorGroup(
                 RuntimeUtil.cpus() * 2,
                 ThreadPoolFactoryUtil.createThreadFactory("service-handler-group",false)
@@ -58,6 +63,10 @@ public class NettyRpcServer {
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
                             ChannelPipeline p = ch.pipeline();
+                            if (flushConsolidation > 0) {
+                                // 响应由业务线程写出，读未进行时也合并到 EventLoop 本轮结束再 flush
+                                p.addLast(new FlushConsolidationHandler(flushConsolidation, true));
+                            }
                             p.addLast(new IdleStateHandler(30,0,0, TimeUnit.SECONDS));
                             p.addLast(new RpcMessageEncoder());
                             p.addLast(new RpcMessageDecoder());
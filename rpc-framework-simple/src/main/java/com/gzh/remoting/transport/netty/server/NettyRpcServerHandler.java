@@ -1,14 +1,20 @@
 package com.gzh.remoting.transport.netty.server;
 
+import com.gzh.compress.CompressPolicy;
 import com.gzh.enums.CompressTypeEnum;
 import com.gzh.enums.RpcResponseCodeEnum;
 import com.gzh.enums.SerializationTypeEnum;
 import com.gzh.factory.SingletonFactory;
 import com.gzh.remoting.constants.RpcConstants;
+import com.gzh.remoting.dto.RpcHandshake;
 import com.gzh.remoting.dto.RpcMessage;
 import com.gzh.remoting.dto.RpcRequest;
 import com.gzh.remoting.dto.RpcResponse;
+import com.gzh.remoting.handler.HandshakeNegotiator;
+import com.gzh.remoting.handler.RpcInvoker;
 import com.gzh.remoting.handler.RpcRequestHandler;
+import com.gzh.remoting.transport.netty.codec.ChannelSession;
+import com.gzh.utils.concurrent.threadpool.ThreadPoolFactoryUtil;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -18,12 +24,24 @@ import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
 @Slf4j
 public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
     private final RpcRequestHandler rpcRequestHandler;
+    private final CompressPolicy compressPolicy;
+    private final HandshakeNegotiator handshakeNegotiator;
+    private final ExecutorService batchExecutor;
 
     public NettyRpcServerHandler() {
         this.rpcRequestHandler = SingletonFactory.getInstance(RpcRequestHandler.class);
+        this.compressPolicy = SingletonFactory.getInstance(CompressPolicy.class);
+        this.handshakeNegotiator = SingletonFactory.getInstance(HandshakeNegotiator.class);
+        this.batchExecutor = ThreadPoolFactoryUtil.createCustomThreadPoolIfAbsent("rpc-batch-dispatch");
     }
 
     @Override
@@ -31,24 +49,40 @@ public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
         try {
             if (msg instanceof RpcMessage) {
                 log.info("server receive msg:{}",msg);
-                byte messageType = ((RpcMessage) msg).getMessageType();
-                RpcMessage rpcMessage = new RpcMessage();
-                rpcMessage.setCodec(SerializationTypeEnum.HESSIAN.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+                RpcMessage request = (RpcMessage) msg;
+                byte messageType = request.getMessageType();
+                if (messageType == RpcConstants.BATCH_REQUEST_TYPE) {//批量请求，并行处理并逐个返回
+                    handleBatch(ctx, request);
+                    return;
+                }
+                RpcMessage rpcMessage = newResponse(request);
 
                 if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {//处理只是心跳链接的请求
+                    rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
                     rpcMessage.setMessageType(RpcConstants.HEARTBEAT_RESPONSE_TYPE);
                     rpcMessage.setData(RpcConstants.PONG);
+                } else if (messageType == RpcConstants.HANDSHAKE_REQUEST_TYPE) {//握手，协商序列化和压缩方式
+                    RpcHandshake offer = (RpcHandshake) request.getData();
+                    RpcHandshake agreed = handshakeNegotiator.answer(offer);
+                    rpcMessage.setCodec(SerializationTypeEnum.HESSIAN.getCode());
+                    rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+                    rpcMessage.setMessageType(RpcConstants.HANDSHAKE_RESPONSE_TYPE);
+                    rpcMessage.setData(agreed);
+                    // 客户端声明的字典它都认识
+                    ChannelSession.get(ctx.channel()).negotiated(agreed, offer.getDictionaryIds());
                 } else {
-                    RpcRequest rpcRequest = (RpcRequest)((RpcMessage) msg).getData();
-                    Object result = rpcRequestHandler.handle(rpcRequest);//不是心跳确认，交由具体server解决
-                    rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
-                    if (ctx.channel().isActive() && ctx.channel().isWritable()) {//判断通道状态是否正常
-                        RpcResponse<Object> response = RpcResponse.success(result, rpcRequest.getRequestId());
-                        rpcMessage.setData(response);
-                    } else {
-                        RpcResponse<Object> fail = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
-                        rpcMessage.setData(fail);
+                    RpcRequest rpcRequest = (RpcRequest) request.getData();
+                    try {
+                        if (handleRequest(ctx, request, rpcRequest, resolveInvoker(ctx, rpcRequest), rpcMessage)) {
+                            // 服务方法返回了 CompletableFuture，完成时再写出响应
+                            return;
+                        }
+                    } catch (Exception e) {
+                        // 调用失败也要回复，否则客户端只能等到超时；不再让异常传到 exceptionCaught 关闭连接
+                        log.error("call [{}] failed", rpcRequest.getMethodKey(), e);
+                        rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+                        rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+                        rpcMessage.setData(fail(rpcRequest));
                     }
                 }
                 ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
@@ -61,6 +95,149 @@ public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * 调用服务方法并填好响应
+     *
+     * @return 服务方法返回了 CompletionStage 时返回 true，此时响应在它完成后由这里写出，调用方不要再写
+     */
+    private boolean handleRequest(ChannelHandlerContext ctx, RpcMessage request, RpcRequest rpcRequest, RpcInvoker invoker,
+                                  RpcMessage rpcMessage) throws Exception {
+        rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+        if (invoker == null && rpcRequest.getInterfaceName() == null) {
+            // 精简请求引用了未注册的方法
+            log.error("unknown method id [{}] on [{}]", rpcRequest.getMethodId(), ctx.channel().remoteAddress());
+            rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+            rpcMessage.setData(fail(rpcRequest));
+            return false;
+        }
+        Object result = invoker != null
+                ? rpcRequestHandler.handle(invoker, rpcRequest)
+                : rpcRequestHandler.handle(rpcRequest);//不是心跳确认，交由具体server解决
+        String methodKey = rpcRequest.getMethodKey();
+        rpcMessage.setMethodKey(methodKey);
+        if (request.getVersion() == RpcConstants.VERSION_1) {
+            // v1 客户端只认识 gzip
+            rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+        } else {
+            rpcMessage.setCompress(compressPolicy.select(rpcRequest.getInterfaceName(), methodKey));
+        }
+        if (result instanceof CompletionStage) {
+            // 异步服务方法：不占用当前线程等待，完成后从完成它的线程写出响应
+            ((CompletionStage<?>) result).whenComplete((value, e) -> {
+                if (e != null) {
+                    log.error("async call [{}] failed", methodKey, e);
+                    rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+                    rpcMessage.setData(fail(rpcRequest));
+                } else {
+                    fillResponse(ctx, rpcRequest, value, rpcMessage);
+                }
+                ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            });
+            return true;
+        }
+        fillResponse(ctx, rpcRequest, result, rpcMessage);
+        return false;
+    }
+
+    private static void fillResponse(ChannelHandlerContext ctx, RpcRequest rpcRequest, Object result, RpcMessage rpcMessage) {
+        if (ctx.channel().isActive() && ctx.channel().isWritable()) {//判断通道状态是否正常
+            RpcResponse<Object> response = RpcResponse.success(result, rpcRequest.getRequestId());
+            rpcMessage.setData(response);
+        } else {
+            rpcMessage.setData(fail(rpcRequest));
+        }
+    }
+
+    /**
+     * 批量请求中的调用互不依赖：先按顺序注册方法，再并行执行，每个调用完成后立即单独返回响应
+     */
+    @SuppressWarnings("unchecked")
+    private void handleBatch(ChannelHandlerContext ctx, RpcMessage batch) {
+        List<RpcMessage> batched = (List<RpcMessage>) batch.getData();
+        // 同一批中可能先注册后引用同一方法，注册必须在当前线程按顺序完成
+        List<RpcMessage> requests = new ArrayList<>(batched.size());
+        List<RpcInvoker> invokers = new ArrayList<>(batched.size());
+        for (RpcMessage request : batched) {
+            RpcRequest rpcRequest = (RpcRequest) request.getData();
+            try {
+                invokers.add(resolveInvoker(ctx, rpcRequest));
+                requests.add(request);
+            } catch (Exception e) {
+                // 未知的服务或方法只让这一个调用失败，同一批的其他调用照常执行，连接也不关闭
+                log.error("batched call [{}] failed", rpcRequest.getMethodKey(), e);
+                RpcMessage rpcMessage = newResponse(request);
+                rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+                rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+                rpcMessage.setData(fail(rpcRequest));
+                ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            }
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            RpcMessage request = requests.get(i);
+            RpcInvoker invoker = invokers.get(i);
+            Runnable call = () -> {
+                RpcRequest rpcRequest = (RpcRequest) request.getData();
+                RpcMessage rpcMessage = newResponse(request);
+                try {
+                    if (handleRequest(ctx, request, rpcRequest, invoker, rpcMessage)) {
+                        return;
+                    }
+                } catch (Exception e) {
+                    log.error("batched call [{}] failed", rpcRequest.getMethodKey(), e);
+                    rpcMessage.setCompress(CompressTypeEnum.NONE.getCode());
+                    rpcMessage.setData(fail(rpcRequest));
+                }
+                ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+            };
+            try {
+                batchExecutor.execute(call);
+            } catch (RejectedExecutionException e) {
+                // 线程池已满时在当前线程执行
+                call.run();
+            }
+        }
+    }
+
+    /**
+     * 按请求的协议版本和序列化方式回复，并带回请求 id 供客户端匹配
+     */
+    private static RpcMessage newResponse(RpcMessage request) {
+        RpcMessage rpcMessage = new RpcMessage();
+        rpcMessage.setVersion(request.getVersion());
+        rpcMessage.setRequestId(request.getRequestId());
+        rpcMessage.setCodec(request.getCodec());
+        return rpcMessage;
+    }
+
+    /**
+     * 带 methodId 的完整请求在本连接上注册方法，精简请求用 methodId 找回注册的方法并补全请求
+     *
+     * @return 注册的方法，请求不带 methodId 或引用了未注册的方法时返回 null
+     */
+    private RpcInvoker resolveInvoker(ChannelHandlerContext ctx, RpcRequest rpcRequest) throws NoSuchMethodException {
+        Integer methodId = rpcRequest.getMethodId();
+        if (methodId == null) {
+            return null;
+        }
+        ChannelSession session = ChannelSession.get(ctx.channel());
+        if (rpcRequest.getInterfaceName() != null) {
+            RpcInvoker invoker = rpcRequestHandler.resolve(rpcRequest);
+            session.register(methodId, invoker);
+            return invoker;
+        }
+        RpcInvoker invoker = session.getInvoker(methodId);
+        if (invoker != null) {
+            invoker.fill(rpcRequest);
+        }
+        return invoker;
+    }
+
+    private static RpcResponse<Object> fail(RpcRequest rpcRequest) {
+        RpcResponse<Object> fail = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
+        fail.setRequestId(rpcRequest.getRequestId());
+        return fail;
+    }
+
     //检测当通道处于空闲状态时关闭，节省资源
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
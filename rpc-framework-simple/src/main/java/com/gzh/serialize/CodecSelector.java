@@ -0,0 +1,159 @@
+package com.gzh.serialize;
+
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
+import com.gzh.enums.SerializationTypeEnum;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按方法自动选择序列化方式（rpc.serialization.adaptive=true 时启用）。
+ * <p>
+ * 编码器每次序列化请求或响应都记录耗时和消息体大小，代价 = 耗时 + 大小 * rpc.serialization.adaptive.byte-cost-ns。
+ * 每个方法先轮流使用各候选序列化方式收集样本，之后使用平均代价最小的，并定期轮流探测其他候选以适应负载变化。
+ * 候选只在 rpc.serialization.adaptive.candidates 和握手协商出的双方都支持的序列化方式中选取，
+ * 实际使用的序列化方式写在帧头的 codec 字段里，对端据此解码；某个序列化方式对一个方法序列化失败后，该方法不再使用它。
+ */
+@Slf4j
+public class CodecSelector {
+    // Kryo 的扩展名是 kyro
+    private static final String DEFAULT_CANDIDATES = SerializationTypeEnum.HESSIAN2.getName() + ","
+            + SerializationTypeEnum.KYRO.getName() + "," + SerializationTypeEnum.PROTOSTUFF.getName();
+    private static final double DEFAULT_BYTE_COST_NANOS = 2.0;
+    // 每个候选至少统计这么多次后才参与比较
+    private static final int MIN_SAMPLES = 8;
+    // 选定之后，每隔这么多次调用探测一次其他候选
+    private static final int PROBE_INTERVAL = 64;
+
+    private final boolean enabled;
+    private final int candidateMask;
+    private final double byteCostNanos;
+    private final Map<String, MethodCodecs> methods = new ConcurrentHashMap<>();
+
+    public CodecSelector() {
+        this.enabled = RpcConfig.getBoolean(RpcConfigEnum.SERIALIZATION_ADAPTIVE, false);
+        this.byteCostNanos = RpcConfig.getDouble(RpcConfigEnum.SERIALIZATION_ADAPTIVE_BYTE_COST, DEFAULT_BYTE_COST_NANOS);
+        int mask = 0;
+        for (String name : RpcConfig.getString(RpcConfigEnum.SERIALIZATION_ADAPTIVE_CANDIDATES, DEFAULT_CANDIDATES).split(",")) {
+            Byte code = SerializationTypeEnum.getCode(name.trim());
+            if (code == null) {
+                log.warn("unknown serialization type [{}] in adaptive candidates, ignore it", name);
+            } else {
+                mask |= 1 << code;
+            }
+        }
+        this.candidateMask = mask;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 选择这次序列化使用的方式
+     *
+     * @param methodKey 接口全名.方法名
+     * @param allowed   对端能解码的序列化方式（位掩码）
+     * @param fallback  没有可选的候选时使用的序列化方式
+     */
+    public byte select(String methodKey, int allowed, byte fallback) {
+        int candidates = allowed & candidateMask;
+        if (candidates == 0) {
+            return fallback;
+        }
+        return methods.computeIfAbsent(methodKey, k -> new MethodCodecs()).select(candidates, fallback);
+    }
+
+    /**
+     * 记录一次序列化的耗时和大小
+     */
+    public void record(String methodKey, byte codec, long nanos, int bytes) {
+        MethodCodecs codecs = methods.get(methodKey);
+        if (codecs != null) {
+            codecs.record(codec, nanos + bytes * byteCostNanos);
+        }
+    }
+
+    /**
+     * 该方法用 codec 序列化失败，之后不再为它选择 codec
+     */
+    public void fail(String methodKey, byte codec) {
+        MethodCodecs codecs = methods.get(methodKey);
+        if (codecs != null) {
+            log.warn("serialization [{}] failed for [{}], exclude it from adaptive selection",
+                    SerializationTypeEnum.getName(codec), methodKey);
+            codecs.fail(codec);
+        }
+    }
+
+    private static final class MethodCodecs {
+        private final double[] costs = new double[Integer.SIZE];
+        private final int[] samples = new int[Integer.SIZE];
+        private int failed;
+        private int calls;
+        private int probe;
+
+        synchronized byte select(int candidates, byte fallback) {
+            candidates &= ~failed;
+            if (candidates == 0) {
+                return fallback;
+            }
+            calls++;
+            int best = -1;
+            int leastSampled = -1;
+            for (int c = 0; c < Integer.SIZE; c++) {
+                if ((candidates & 1 << c) == 0) {
+                    continue;
+                }
+                if (samples[c] < MIN_SAMPLES) {
+                    if (leastSampled < 0 || samples[c] < samples[leastSampled]) {
+                        leastSampled = c;
+                    }
+                } else if (best < 0 || costs[c] < costs[best]) {
+                    best = c;
+                }
+            }
+            if (leastSampled >= 0) {
+                // 还在收集样本
+                return (byte) leastSampled;
+            }
+            if (calls % PROBE_INTERVAL == 0) {
+                // 轮流探测其他候选
+                for (int i = 1; i <= Integer.SIZE; i++) {
+                    int c = (probe + i) % Integer.SIZE;
+                    if ((candidates & 1 << c) != 0 && c != best) {
+                        probe = c;
+                        return (byte) c;
+                    }
+                }
+            }
+            return (byte) best;
+        }
+
+        synchronized void record(byte codec, double cost) {
+            if (codec < 0 || codec >= Integer.SIZE) {
+                return;
+            }
+            int n = samples[codec];
+            if (n == 0) {
+                // 第一次包含类加载、建 schema 等预热开销，不计入
+                samples[codec] = 1;
+                return;
+            }
+            // 收集样本期间取算术平均，之后指数加权平均，新样本权重 1/8
+            costs[codec] = n == 1 ? cost : n < MIN_SAMPLES ? costs[codec] + (cost - costs[codec]) / n
+                    : costs[codec] + (cost - costs[codec]) / 8;
+            if (n < MIN_SAMPLES) {
+                samples[codec] = n + 1;
+            }
+        }
+
+        synchronized void fail(byte codec) {
+            if (codec >= 0 && codec < Integer.SIZE) {
+                failed |= 1 << codec;
+            }
+        }
+    }
+}
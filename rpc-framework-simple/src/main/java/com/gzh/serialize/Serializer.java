@@ -2,6 +2,7 @@ package com.gzh.serialize;
 
 
 import com.gzh.extension.SPI;
+import io.netty.buffer.ByteBuf;
 
 /**
  * 序列化接口，所有序列化类都要实现这个接口
@@ -29,4 +30,30 @@ public interface Serializer {
      * @return 反序列化的对象
      */
     <T> T deserialize(byte[] bytes, Class<T> clazz);
+
+    /**
+     * 序列化并直接写入 ByteBuf。
+     * 默认实现先得到字节数组再写入，只支持字节数组的序列化器无需改动；
+     * 支持流式写入的实现应覆盖该方法，省去中间数组和拷贝
+     *
+     * @param obj 要序列化的对象
+     * @param out 目标缓冲区，从 writerIndex 开始写入
+     */
+    default void serialize(Object obj, ByteBuf out) {
+        out.writeBytes(serialize(obj));
+    }
+
+    /**
+     * 从 ByteBuf 反序列化，读取 in 中全部可读字节
+     *
+     * @param in    序列化后的数据
+     * @param clazz 目标类
+     * @param <T>   类的类型
+     * @return 反序列化的对象
+     */
+    default <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        byte[] bytes = new byte[in.readableBytes()];
+        in.readBytes(bytes);
+        return deserialize(bytes, clazz);
+    }
 }
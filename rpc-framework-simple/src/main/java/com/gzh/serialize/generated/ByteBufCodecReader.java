@@ -0,0 +1,274 @@
+package com.gzh.serialize.generated;
+
+import com.gzh.codec.CodecReader;
+import com.gzh.codec.GeneratedCodec;
+import com.gzh.exception.SerializeException;
+import com.gzh.serialize.Serializer;
+import io.netty.buffer.ByteBuf;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.gzh.serialize.generated.ByteBufCodecWriter.*;
+
+/**
+ * 读取 {@link ByteBufCodecWriter} 写出的内容，一条消息一个实例。
+ * 长度都会先和剩余可读字节比较，嵌套深度有上限，避免畸形数据造成过大的分配或栈溢出。
+ */
+final class ByteBufCodecReader implements CodecReader {
+    private static final int MAX_DEPTH = 64;
+
+    private final ByteBuf in;
+    private final Serializer fallback;
+    private List<Class<?>> classes;
+    private int depth;
+
+    ByteBufCodecReader(ByteBuf in, Serializer fallback) {
+        this.in = in;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public boolean readBoolean() {
+        return in.readBoolean();
+    }
+
+    @Override
+    public byte readByte() {
+        return in.readByte();
+    }
+
+    @Override
+    public short readShort() {
+        return (short) readInt();
+    }
+
+    @Override
+    public char readChar() {
+        return (char) readVarInt();
+    }
+
+    @Override
+    public int readInt() {
+        int v = readVarInt();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    @Override
+    public long readLong() {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new SerializeException("Malformed varlong");
+    }
+
+    @Override
+    public float readFloat() {
+        return in.readFloat();
+    }
+
+    @Override
+    public double readDouble() {
+        return in.readDouble();
+    }
+
+    @Override
+    public String readString() {
+        int length = readVarInt();
+        if (length == 0) {
+            return null;
+        }
+        length = checkLength(length - 1);
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    @Override
+    public Object readObject() {
+        if (++depth > MAX_DEPTH) {
+            throw new SerializeException("Object graph nested deeper than " + MAX_DEPTH);
+        }
+        try {
+            return doReadObject();
+        } finally {
+            depth--;
+        }
+    }
+
+    private Object doReadObject() {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString();
+            case INT:
+                return readInt();
+            case LONG:
+                return readLong();
+            case BOOLEAN:
+                return in.readBoolean();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return readShort();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return readChar();
+            case BYTES: {
+                byte[] bytes = new byte[checkLength(readVarInt())];
+                in.readBytes(bytes);
+                return bytes;
+            }
+            case INTS: {
+                int[] ints = new int[checkLength(readVarInt())];
+                for (int i = 0; i < ints.length; i++) {
+                    ints[i] = readInt();
+                }
+                return ints;
+            }
+            case CLASS:
+                return readClass();
+            case ENUM:
+                return readEnum();
+            case ARRAY: {
+                Class<?> componentType = readClass();
+                if (componentType.isPrimitive()) {
+                    throw new SerializeException("Unexpected primitive component type " + componentType);
+                }
+                Object[] array = (Object[]) Array.newInstance(componentType, checkLength(readVarInt()));
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readObject();
+                }
+                return array;
+            }
+            case LIST: {
+                int size = checkLength(readVarInt());
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readObject());
+                }
+                return list;
+            }
+            case MAP: {
+                int size = checkLength(readVarInt());
+                Map<Object, Object> map = new HashMap<>((int) (size / 0.75f) + 1);
+                for (int i = 0; i < size; i++) {
+                    map.put(readObject(), readObject());
+                }
+                return map;
+            }
+            case GENERATED: {
+                Class<?> clazz = readClass();
+                GeneratedCodec<Object> codec = GeneratedCodecs.find(clazz);
+                if (codec == null) {
+                    throw new SerializeException("No generated codec for " + clazz.getName());
+                }
+                return codec.read(this);
+            }
+            case FALLBACK: {
+                int length = checkLength(in.readInt());
+                ByteBuf slice = in.readSlice(length);
+                return fallback.deserialize(slice, Object.class);
+            }
+            default:
+                throw new SerializeException("Unknown type tag " + tag);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readEnum() {
+        Class<?> clazz = readClass();
+        if (!clazz.isEnum()) {
+            throw new SerializeException(clazz.getName() + " is not an enum");
+        }
+        return Enum.valueOf((Class) clazz, readString());
+    }
+
+    private Class<?> readClass() {
+        if (classes == null) {
+            classes = new ArrayList<>();
+        }
+        int index = readVarInt();
+        if (index > 0) {
+            if (index > classes.size()) {
+                throw new SerializeException("Unknown class reference " + index);
+            }
+            return classes.get(index - 1);
+        }
+        String name = readString();
+        Class<?> clazz = resolve(name);
+        classes.add(clazz);
+        return clazz;
+    }
+
+    private static Class<?> resolve(String name) {
+        if (name == null) {
+            throw new SerializeException("Missing class name");
+        }
+        switch (name) {
+            case "boolean":
+                return boolean.class;
+            case "byte":
+                return byte.class;
+            case "short":
+                return short.class;
+            case "char":
+                return char.class;
+            case "int":
+                return int.class;
+            case "long":
+                return long.class;
+            case "float":
+                return float.class;
+            case "double":
+                return double.class;
+            case "void":
+                return void.class;
+            default:
+                try {
+                    // 只加载不初始化，真正创建对象的只有生成的编解码器和 fallback 序列化器
+                    return Class.forName(name, false, classLoader());
+                } catch (ClassNotFoundException e) {
+                    throw new SerializeException("Class not found: " + name);
+                }
+        }
+    }
+
+    private static ClassLoader classLoader() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader == null ? ByteBufCodecReader.class.getClassLoader() : classLoader;
+    }
+
+    private int checkLength(int length) {
+        if (length < 0 || length > in.readableBytes()) {
+            throw new SerializeException("Length " + length + " exceeds remaining " + in.readableBytes() + " bytes");
+        }
+        return length;
+    }
+
+    private int readVarInt() {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            v |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+        throw new SerializeException("Malformed varint");
+    }
+}
@@ -0,0 +1,223 @@
+package com.gzh.serialize.generated;
+
+import com.gzh.codec.CodecWriter;
+import com.gzh.codec.GeneratedCodec;
+import com.gzh.serialize.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 生成的编解码器使用的二进制输出，一条消息一个实例。
+ * <p>
+ * int/long/short/char 使用 zigzag 变长编码；String 为变长长度加 UTF-8；
+ * writeObject 先写一个字节的类型标记，类名在一条消息内第一次出现时写全名，之后只写序号。
+ * 没有生成编解码器、也不是下面列出的常见类型的对象交给 fallback 序列化器，嵌入为一段带长度的字节。
+ */
+final class ByteBufCodecWriter implements CodecWriter {
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte INT = 2;
+    static final byte LONG = 3;
+    static final byte BOOLEAN = 4;
+    static final byte DOUBLE = 5;
+    static final byte FLOAT = 6;
+    static final byte SHORT = 7;
+    static final byte BYTE = 8;
+    static final byte CHAR = 9;
+    static final byte BYTES = 10;
+    static final byte INTS = 11;
+    static final byte CLASS = 12;
+    static final byte ENUM = 13;
+    static final byte ARRAY = 14;
+    static final byte LIST = 15;
+    static final byte MAP = 16;
+    static final byte GENERATED = 17;
+    static final byte FALLBACK = 18;
+
+    private final ByteBuf out;
+    private final Serializer fallback;
+    private Map<String, Integer> classNames;
+
+    ByteBufCodecWriter(ByteBuf out, Serializer fallback) {
+        this.out = out;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void writeBoolean(boolean value) {
+        out.writeBoolean(value);
+    }
+
+    @Override
+    public void writeByte(byte value) {
+        out.writeByte(value);
+    }
+
+    @Override
+    public void writeShort(short value) {
+        writeInt(value);
+    }
+
+    @Override
+    public void writeChar(char value) {
+        writeVarInt(value);
+    }
+
+    @Override
+    public void writeInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    @Override
+    public void writeLong(long value) {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    @Override
+    public void writeFloat(float value) {
+        out.writeFloat(value);
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        out.writeDouble(value);
+    }
+
+    /**
+     * null 写 0，否则写 UTF-8 字节数 + 1
+     */
+    @Override
+    public void writeString(String value) {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(ByteBufUtil.utf8Bytes(value) + 1);
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    @Override
+    public void writeObject(Object value) {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHAR);
+            writeChar((Character) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(BYTES);
+            writeVarInt(bytes.length);
+            out.writeBytes(bytes);
+        } else if (value instanceof int[]) {
+            int[] ints = (int[]) value;
+            out.writeByte(INTS);
+            writeVarInt(ints.length);
+            for (int i : ints) {
+                writeInt(i);
+            }
+        } else if (value instanceof Class) {
+            out.writeByte(CLASS);
+            writeClassName(((Class<?>) value).getName());
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            writeClassName(((Enum<?>) value).getDeclaringClass().getName());
+            writeString(((Enum<?>) value).name());
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(ARRAY);
+            writeClassName(array.getClass().getComponentType().getName());
+            writeVarInt(array.length);
+            for (Object element : array) {
+                writeObject(element);
+            }
+        } else if (value.getClass() == ArrayList.class) {
+            List<?> list = (List<?>) value;
+            out.writeByte(LIST);
+            writeVarInt(list.size());
+            for (Object element : list) {
+                writeObject(element);
+            }
+        } else if (value.getClass() == HashMap.class) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(MAP);
+            writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeObject(entry.getKey());
+                writeObject(entry.getValue());
+            }
+        } else {
+            GeneratedCodec<Object> codec = GeneratedCodecs.find(value.getClass());
+            if (codec != null) {
+                out.writeByte(GENERATED);
+                writeClassName(value.getClass().getName());
+                codec.write(value, this);
+            } else {
+                out.writeByte(FALLBACK);
+                // 长度先占位，写完再回填
+                int lengthIndex = out.writerIndex();
+                out.writeInt(0);
+                fallback.serialize(value, out);
+                out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+            }
+        }
+    }
+
+    /**
+     * 已写过的类名写 序号 + 1，第一次出现写 0 和类名
+     */
+    private void writeClassName(String name) {
+        if (classNames == null) {
+            classNames = new HashMap<>();
+        }
+        Integer index = classNames.get(name);
+        if (index != null) {
+            writeVarInt(index + 1);
+            return;
+        }
+        classNames.put(name, classNames.size());
+        writeVarInt(0);
+        writeString(name);
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
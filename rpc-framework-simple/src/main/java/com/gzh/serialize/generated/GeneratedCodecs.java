@@ -0,0 +1,49 @@
+package com.gzh.serialize.generated;
+
+import com.gzh.codec.GeneratedCodec;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 查找编译期生成的 {@code <类名>_RpcCodec}，结果（包括没有生成的情况）按类缓存
+ */
+@Slf4j
+final class GeneratedCodecs {
+    private static final String SUFFIX = "_RpcCodec";
+    private static final Map<Class<?>, Optional<GeneratedCodec<Object>>> CODECS = new ConcurrentHashMap<>();
+
+    private GeneratedCodecs() {
+    }
+
+    /**
+     * @return 没有生成编解码器时返回 null
+     */
+    static GeneratedCodec<Object> find(Class<?> clazz) {
+        return CODECS.computeIfAbsent(clazz, GeneratedCodecs::load).orElse(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Optional<GeneratedCodec<Object>> load(Class<?> clazz) {
+        if (clazz.isArray() || clazz.isPrimitive() || clazz.getName().startsWith("java.")) {
+            return Optional.empty();
+        }
+        String codecName = clazz.getName().replace('$', '_') + SUFFIX;
+        ClassLoader classLoader = clazz.getClassLoader() == null ? GeneratedCodecs.class.getClassLoader() : clazz.getClassLoader();
+        try {
+            Class<?> codecClass = Class.forName(codecName, true, classLoader);
+            if (!GeneratedCodec.class.isAssignableFrom(codecClass)) {
+                log.warn("[{}] is not a GeneratedCodec, ignore it", codecName);
+                return Optional.empty();
+            }
+            return Optional.of((GeneratedCodec<Object>) codecClass.getDeclaredConstructor().newInstance());
+        } catch (ClassNotFoundException e) {
+            return Optional.empty();
+        } catch (ReflectiveOperationException e) {
+            log.warn("failed to create generated codec [{}]", codecName, e);
+            return Optional.empty();
+        }
+    }
+}
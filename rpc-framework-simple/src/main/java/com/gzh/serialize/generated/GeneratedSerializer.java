@@ -0,0 +1,59 @@
+package com.gzh.serialize.generated;
+
+import com.gzh.enums.SerializationTypeEnum;
+import com.gzh.exception.SerializeException;
+import com.gzh.extension.ExtensionLoader;
+import com.gzh.serialize.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+/**
+ * 使用编译期生成的编解码器（见 {@link com.gzh.annotation.RpcCodec}）序列化，RpcRequest、RpcResponse 等消息体
+ * 和参数、返回值中标记过的 DTO 都不经过反射；其余对象交给 hessian2 序列化后嵌入
+ */
+public class GeneratedSerializer implements Serializer {
+
+    private final Serializer fallback = ExtensionLoader.getExtensionLoader(Serializer.class)
+            .getExtension(SerializationTypeEnum.HESSIAN2.getName());
+
+    @Override
+    public byte[] serialize(Object obj) {
+        ByteBuf out = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            serialize(obj, out);
+            byte[] bytes = new byte[out.readableBytes()];
+            out.readBytes(bytes);
+            return bytes;
+        } finally {
+            out.release();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        return deserialize(Unpooled.wrappedBuffer(bytes), clazz);
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        try {
+            new ByteBufCodecWriter(out, fallback).writeObject(obj);
+        } catch (SerializeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SerializeException("Serialization failed");
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        try {
+            return clazz.cast(new ByteBufCodecReader(in, fallback).readObject());
+        } catch (SerializeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SerializeException("Deserialization failed");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.gzh.serialize.hessian;
+
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.SerializerFactory;
+import com.gzh.exception.SerializeException;
+import com.gzh.serialize.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Hessian 2.0 序列化，相比 Hessian 1 的 HessianOutput 编码更紧凑（短整数、短字符串、类定义只写一次后按引用复用）。
+ * SerializerFactory 内部缓存了每个类的序列化器，全局共享一个；Hessian2Input/Hessian2Output 带有自己的缓冲区，
+ * 每个线程各持有一个，每次使用前 init 到新的流上（init 会 reset 引用表和类定义表，保证每条消息都能独立解码）
+ */
+public class Hessian2Serializer implements Serializer {
+
+    private static final SerializerFactory SERIALIZER_FACTORY = new SerializerFactory();
+
+    private static final ThreadLocal<Hessian2Output> OUTPUT = ThreadLocal.withInitial(() -> {
+        Hessian2Output output = new Hessian2Output();
+        output.setSerializerFactory(SERIALIZER_FACTORY);
+        return output;
+    });
+
+    private static final ThreadLocal<Hessian2Input> INPUT = ThreadLocal.withInitial(() -> {
+        Hessian2Input input = new Hessian2Input();
+        input.setSerializerFactory(SERIALIZER_FACTORY);
+        return input;
+    });
+
+    @Override
+    public byte[] serialize(Object obj) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        write(obj, byteArrayOutputStream);
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        return read(new ByteArrayInputStream(bytes), clazz);
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        write(obj, new ByteBufOutputStream(out));
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        return read(new ByteBufInputStream(in), clazz);
+    }
+
+    private static void write(Object obj, OutputStream os) {
+        Hessian2Output output = OUTPUT.get();
+        try {
+            output.init(os);
+            output.writeObject(obj);
+            output.flush();
+        } catch (Exception e) {
+            throw new SerializeException("Serialization failed");
+        } finally {
+            // 不再持有本次的流，避免引用已经释放的 ByteBuf
+            output.init(null);
+        }
+    }
+
+    private static <T> T read(InputStream is, Class<T> clazz) {
+        Hessian2Input input = INPUT.get();
+        try {
+            input.init(is);
+            return clazz.cast(input.readObject());
+        } catch (Exception e) {
+            throw new SerializeException("Deserialization failed");
+        } finally {
+            input.init(null);
+        }
+    }
+}
@@ -5,6 +5,9 @@ import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
 import com.gzh.exception.SerializeException;
 import com.gzh.serialize.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 
 
 import java.io.ByteArrayInputStream;
@@ -44,4 +47,28 @@ public class HessianSerializer implements Serializer {
         }
 
     }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        try {
+            // HessianOutput 直接写入底层流，不经过 ByteArrayOutputStream
+            HessianOutput hessianOutput = new HessianOutput(new ByteBufOutputStream(out));
+            hessianOutput.writeObject(obj);
+            hessianOutput.flush();
+        } catch (Exception e) {
+            throw new SerializeException("Serialization failed");
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        try {
+            HessianInput hessianInput = new HessianInput(new ByteBufInputStream(in));
+            Object o = hessianInput.readObject();
+
+            return clazz.cast(o);
+        } catch (Exception e) {
+            throw new SerializeException("Deserialization failed");
+        }
+    }
 }
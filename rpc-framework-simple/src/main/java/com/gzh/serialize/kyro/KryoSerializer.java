@@ -4,74 +4,195 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
+import com.gzh.config.RpcConfig;
+import com.gzh.enums.RpcConfigEnum;
 import com.gzh.exception.SerializeException;
+import com.gzh.remoting.dto.RpcHandshake;
 import com.gzh.remoting.dto.RpcRequest;
 import com.gzh.remoting.dto.RpcResponse;
 import com.gzh.serialize.Serializer;
+import com.gzh.utils.RuntimeUtil;
+import com.gzh.utils.StringUtil;
+import io.netty.buffer.ByteBuf;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Kryo serialization class, Kryo serialization efficiency is very high, but only compatible with Java language
+ * <p>
+ * Kryo 不是线程安全的，这里用一个有界池复用 Kryo 以及配套的 Output/Input，
+ * 注册信息和序列化器缓存在实例的整个生命周期内保留。
+ * <p>
+ * 类注册使用固定的 id：框架自身的类从 {@link #REGISTRATION_ID_BASE} 开始，
+ * 之后是 rpc.serialization.kryo.classes 中按顺序列出的业务类，客户端和服务端必须配置相同的列表。
+ * 开启 rpc.serialization.kryo.registration-required 后，未注册的类会直接报错，而不是把类名写进每条消息。
  *
  * @author shuang.kou
  * @createTime 2020年05月13日 19:29:00
  */
 @Slf4j
 public class KryoSerializer implements Serializer {
+    // 避开 Kryo 自带的基本类型注册
+    private static final int REGISTRATION_ID_BASE = 100;
+    private static final int BUFFER_SIZE = 4096;
+    // 超过这个大小的缓冲区用完后不再保留，避免一次大消息让池里的实例一直占着大数组
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+    private static final List<Class<?>> FRAMEWORK_CLASSES = Collections.unmodifiableList(Arrays.asList(
+            RpcRequest.class,
+            RpcResponse.class,
+            RpcHandshake.class,
+            Object[].class,
+            Class.class,
+            Class[].class,
+            byte[].class,
+            int[].class
+    ));
 
-        /**
-         * 由于 Kryo 不是线程安全的。每个线程都应该有自己的 Kryo，Input 和 Output 实例。
-         * 所以，使用 ThreadLocal 存放 Kryo 对象
-         */
-        private static final ThreadLocal<Kryo> kryoThreadLocal = ThreadLocal.withInitial(() -> {
-            Kryo kryo = new Kryo();
-            kryo.register(RpcResponse.class);
-            kryo.register(RpcRequest.class);
-            kryo.setReferences(true);//默认值为true,是否关闭注册行为,关闭之后可能存在序列化问题，一般推荐设置为 true
-            kryo.setRegistrationRequired(false);//默认值为false,是否关闭循环引用，可以提高性能，但是一般不推荐设置为 true
-            return kryo;
-        });
-
-        @Override
-        public byte[] serialize(Object obj) {
-            try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                 Output output = new Output(byteArrayOutputStream)) {
-                Kryo kryo = kryoThreadLocal.get();
-                // Object->byte:将对象序列化为byte数组
-                kryo.writeObject(output, obj);
-                kryoThreadLocal.remove();
-                return output.toBytes();
-            } catch (Exception e) {
-                throw new SerializeException("序列化失败");
+    private final List<Class<?>> registrations = registrations();
+    private final boolean registrationRequired =
+            RpcConfig.getBoolean(RpcConfigEnum.KRYO_REGISTRATION_REQUIRED, false);
+    private final BlockingQueue<KryoHolder> pool = new ArrayBlockingQueue<>(RuntimeUtil.cpus() * 2);
+
+    @Override
+    public byte[] serialize(Object obj) {
+        KryoHolder holder = borrow();
+        try {
+            Output output = holder.output;
+            output.setPosition(0);
+            holder.kryo.writeObject(output, obj);
+            return output.toBytes();
+        } catch (Exception e) {
+            throw new SerializeException("序列化失败");
+        } finally {
+            release(holder);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        KryoHolder holder = borrow();
+        try {
+            holder.input.setBuffer(bytes, 0, bytes.length);
+            return holder.kryo.readObject(holder.input, clazz);
+        } catch (Exception e) {
+            throw new SerializeException("反序列化失败");
+        } finally {
+            release(holder);
+        }
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        KryoHolder holder = borrow();
+        try {
+            Output output = holder.output;
+            output.setPosition(0);
+            holder.kryo.writeObject(output, obj);
+            out.writeBytes(output.getBuffer(), 0, output.position());
+        } catch (Exception e) {
+            throw new SerializeException("序列化失败");
+        } finally {
+            release(holder);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        KryoHolder holder = borrow();
+        try {
+            int length = in.readableBytes();
+            Input input = holder.input;
+            if (in.hasArray()) {
+                input.setBuffer(in.array(), in.arrayOffset() + in.readerIndex(), length);
+            } else {
+                // 堆外缓冲区先拷贝到复用的数组中
+                byte[] buffer = holder.readBuffer(length);
+                in.getBytes(in.readerIndex(), buffer, 0, length);
+                input.setBuffer(buffer, 0, length);
             }
+            T obj = holder.kryo.readObject(input, clazz);
+            in.skipBytes(length);
+            return obj;
+        } catch (Exception e) {
+            throw new SerializeException("反序列化失败");
+        } finally {
+            release(holder);
         }
+    }
 
-        @Override
-        public <T> T deserialize(byte[] bytes, Class<T> clazz) {
-            try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-                 Input input = new Input(byteArrayInputStream)) {
-                Kryo kryo = kryoThreadLocal.get();
-                // byte->Object:从byte数组中反序列化出对对象
-                Object o = kryo.readObject(input, clazz);
-                kryoThreadLocal.remove();
-                return clazz.cast(o);
-            } catch (Exception e) {
-                throw new SerializeException("反序列化失败");
+    private KryoHolder borrow() {
+        KryoHolder holder = pool.poll();
+        return holder != null ? holder : new KryoHolder(newKryo());
+    }
+
+    private void release(KryoHolder holder) {
+        // 不再引用调用方的数组
+        holder.input.setBuffer(EMPTY);
+        if (holder.output.getBuffer().length > MAX_POOLED_BUFFER_SIZE) {
+            holder.output = new Output(BUFFER_SIZE, -1);
+        }
+        pool.offer(holder);
+    }
+
+    private Kryo newKryo() {
+        Kryo kryo = new Kryo();
+        int id = REGISTRATION_ID_BASE;
+        for (Class<?> clazz : registrations) {
+            kryo.register(clazz, id++);
+        }
+        kryo.setReferences(true);//是否开启循环引用，关闭可以提高性能，但是一般不推荐
+        kryo.setRegistrationRequired(registrationRequired);//开启后未注册的类会报错，需要两端注册列表一致
+        return kryo;
+    }
+
+    /**
+     * 注册顺序决定 id，框架类在前，业务类按配置顺序在后
+     */
+    private static List<Class<?>> registrations() {
+        List<Class<?>> classes = new ArrayList<>(FRAMEWORK_CLASSES);
+        String configured = RpcConfig.getString(RpcConfigEnum.KRYO_CLASSES, null);
+        if (configured == null) {
+            return classes;
+        }
+        for (String name : configured.split(",")) {
+            name = name.trim();
+            if (StringUtil.isBlank(name)) {
+                continue;
+            }
+            try {
+                classes.add(Class.forName(name, false, Thread.currentThread().getContextClassLoader()));
+            } catch (ClassNotFoundException e) {
+                // 跳过会让后面的 id 错位，两端就无法互通了
+                throw new IllegalStateException("kryo registration class not found: " + name, e);
             }
         }
+        return classes;
+    }
 
+    private static final class KryoHolder {
+        private final Kryo kryo;
+        private final Input input = new Input();
+        private Output output = new Output(BUFFER_SIZE, -1);
+        private byte[] readBuffer = EMPTY;
 
-//    public class SerializeException extends RuntimeException {
-//        public SerializeException(String message) {
-//            super(message);
-//        }
-//
-//        public SerializeException(String message, Throwable cause) {
-//            super(message, cause);
-//        }
-//    }
+        private KryoHolder(Kryo kryo) {
+            this.kryo = kryo;
+        }
 
+        private byte[] readBuffer(int length) {
+            if (readBuffer.length < length) {
+                readBuffer = new byte[length];
+            } else if (readBuffer.length > MAX_POOLED_BUFFER_SIZE && length <= BUFFER_SIZE) {
+                readBuffer = new byte[BUFFER_SIZE];
+            }
+            return readBuffer;
+        }
+    }
 }
@@ -1,41 +1,92 @@
 package com.gzh.serialize.protostuff;
 
 
+import com.gzh.exception.SerializeException;
 import com.gzh.serialize.Serializer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import io.protostuff.LinkedBuffer;
 import io.protostuff.ProtostuffIOUtil;
 import io.protostuff.Schema;
 import io.protostuff.runtime.RuntimeSchema;
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
+ * LinkedBuffer 不是线程安全的，服务端会在多个业务线程上同时序列化，因此每个线程使用自己的 LinkedBuffer
+ *
  * @author TangMinXuan
  * @createTime 2020年11月09日 20:13
  */
 public class ProtostuffSerializer implements Serializer {
 
     /**
-     * Avoid re applying buffer space every time serialization
+     * Avoid re applying buffer space every time serialization, one buffer per thread
      */
-    private static final LinkedBuffer BUFFER = LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+    private static final ThreadLocal<LinkedBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE));
+
+    private static final Map<Class<?>, Schema<?>> SCHEMA_CACHE = new ConcurrentHashMap<>();
 
     @Override
     public byte[] serialize(Object obj) {
-        Class<?> clazz = obj.getClass();
-        Schema schema = RuntimeSchema.getSchema(clazz);
-        byte[] bytes;
+        Schema schema = getSchema(obj.getClass());
+        LinkedBuffer buffer = BUFFER.get();
         try {
-            bytes = ProtostuffIOUtil.toByteArray(obj, schema, BUFFER);
+            return ProtostuffIOUtil.toByteArray(obj, schema, buffer);
         } finally {
-            BUFFER.clear();
+            buffer.clear();
         }
-        return bytes;
     }
 
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) {
-        Schema<T> schema = RuntimeSchema.getSchema(clazz);
+        Schema<T> schema = getSchema(clazz);
         T obj = schema.newMessage();
         ProtostuffIOUtil.mergeFrom(bytes, obj, schema);
         return obj;
     }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) {
+        Schema schema = getSchema(obj.getClass());
+        LinkedBuffer buffer = BUFFER.get();
+        try {
+            // LinkedBuffer 写满一段就刷进 ByteBuf，不生成中间数组
+            ProtostuffIOUtil.writeTo(new ByteBufOutputStream(out), obj, schema, buffer);
+        } catch (IOException e) {
+            throw new SerializeException("Serialization failed");
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> clazz) {
+        Schema<T> schema = getSchema(clazz);
+        T obj = schema.newMessage();
+        int length = in.readableBytes();
+        if (in.hasArray()) {
+            ProtostuffIOUtil.mergeFrom(in.array(), in.arrayOffset() + in.readerIndex(), length, obj, schema);
+            in.skipBytes(length);
+            return obj;
+        }
+        LinkedBuffer buffer = BUFFER.get();
+        try {
+            ProtostuffIOUtil.mergeFrom(new ByteBufInputStream(in), obj, schema, buffer);
+            return obj;
+        } catch (IOException e) {
+            throw new SerializeException("Deserialization failed");
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Schema<T> getSchema(Class<T> clazz) {
+        return (Schema<T>) SCHEMA_CACHE.computeIfAbsent(clazz, RuntimeSchema::createFrom);
+    }
 }
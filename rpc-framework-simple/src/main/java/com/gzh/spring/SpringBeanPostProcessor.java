@@ -73,6 +73,7 @@ public class SpringBeanPostProcessor implements BeanPostProcessor {
                 RpcServiceConfig rpcServiceConfig = RpcServiceConfig.builder()
                         .group(rpcReference.group())  // 使用注解中提供的group
                         .version(rpcReference.version())  // 使用注解中提供的version
+                        .timeout(rpcReference.timeout())  // 使用注解中提供的超时时间
                         .build();
 
                 // 创建RpcClientProxy代理对象，传入rpcClient和配置对象
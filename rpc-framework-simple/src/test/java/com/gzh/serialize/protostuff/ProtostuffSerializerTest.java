@@ -0,0 +1,120 @@
+package com.gzh.serialize.protostuff;
+
+import com.gzh.enums.RpcResponseCodeEnum;
+import com.gzh.remoting.dto.RpcRequest;
+import com.gzh.remoting.dto.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 服务端在 service-handler-group（DefaultEventExecutorGroup）的多个线程上同时序列化，
+ * 这里用同样的线程模型并发往返 RpcRequest/RpcResponse，检查每个线程得到的都是自己的数据
+ */
+class ProtostuffSerializerTest {
+    private static final int THREADS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final int ROUNDS = 2000;
+
+    private final ProtostuffSerializer serializer = new ProtostuffSerializer();
+
+    @Test
+    void concurrentRoundTrips() throws Exception {
+        EventExecutorGroup group = new DefaultEventExecutorGroup(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(group.submit(() -> {
+                    // 所有线程同时开始，尽量让序列化交错进行
+                    start.await();
+                    for (int i = 0; i < ROUNDS; i++) {
+                        roundTrip(thread, i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Object> future : futures) {
+                // 任一线程的断言失败会在这里以 ExecutionException 抛出
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            group.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    private void roundTrip(int thread, int i) {
+        String id = thread + "-" + i;
+        // 长度不一，有的超过 LinkedBuffer 的一段（512 字节），会分多次写出
+        String payload = repeat(id, (i % 4) * 200);
+        RpcRequest request = RpcRequest.builder()
+                .requestId(id)
+                .interfaceName("com.gzh.HelloService")
+                .methodName("hello")
+                .parameters(new Object[]{payload, i})
+                .paramTypes(new Class<?>[]{String.class, Integer.class})
+                .group("group" + thread)
+                .version("version" + i)
+                .methodId(i)
+                .build();
+
+        assertRequest(request, serializer.deserialize(serializer.serialize(request), RpcRequest.class));
+        // 堆内缓冲区走数组，堆外缓冲区走 LinkedBuffer
+        assertRequest(request, viaByteBuf(request, Unpooled.buffer(), RpcRequest.class));
+        assertRequest(request, viaByteBuf(request, Unpooled.directBuffer(), RpcRequest.class));
+
+        RpcResponse<Object> response = RpcResponse.success(payload, id);
+        assertResponse(response, serializer.deserialize(serializer.serialize(response), RpcResponse.class));
+        assertResponse(response, viaByteBuf(response, Unpooled.buffer(), RpcResponse.class));
+        assertResponse(response, viaByteBuf(response, Unpooled.directBuffer(), RpcResponse.class));
+    }
+
+    private <T> T viaByteBuf(Object obj, ByteBuf buf, Class<T> clazz) {
+        try {
+            serializer.serialize(obj, buf);
+            T result = serializer.deserialize(buf, clazz);
+            assertEquals(0, buf.readableBytes());
+            return result;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static void assertRequest(RpcRequest expected, RpcRequest actual) {
+        assertEquals(expected.getRequestId(), actual.getRequestId());
+        assertEquals(expected.getInterfaceName(), actual.getInterfaceName());
+        assertEquals(expected.getMethodName(), actual.getMethodName());
+        assertArrayEquals(expected.getParameters(), actual.getParameters());
+        assertArrayEquals(expected.getParamTypes(), actual.getParamTypes());
+        assertEquals(expected.getGroup(), actual.getGroup());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getMethodId(), actual.getMethodId());
+    }
+
+    private static void assertResponse(RpcResponse<?> expected, RpcResponse<?> actual) {
+        assertEquals(expected.getRequestId(), actual.getRequestId());
+        assertEquals(RpcResponseCodeEnum.SUCCESS.getCode(), actual.getCode());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getData(), actual.getData());
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder(s);
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}